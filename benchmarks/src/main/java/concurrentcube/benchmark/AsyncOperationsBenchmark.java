@@ -0,0 +1,95 @@
+package concurrentcube.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import concurrentcube.Cube;
+import concurrentcube.util.AsyncExecutors;
+
+/**
+ * Keeps many asynchronous rotations outstanding at once: they are all
+ * submitted while an inspector holds the cube, and released together.
+ * Reports how many platform threads the JVM had while they were waiting.
+ *
+ * Meant for Java 21+, where the default executor uses virtual threads, e.g.
+ * {@code java -jar benchmarks.jar AsyncOperationsBenchmark -jvm /path/to/java21/bin/java}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class AsyncOperationsBenchmark {
+
+	@Param({"100000"})
+	int operations;
+
+	@Param({"16"})
+	int size;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Threads {
+
+		public long platformThreads;
+		public long virtualThreads;
+	}
+
+	@Setup(Level.Trial)
+	public void checkExecutor() {
+		if (!AsyncExecutors.usesVirtualThreads()) {
+			System.err.println("No virtual threads in this runtime, every operation takes a platform thread.");
+		}
+	}
+
+	@Benchmark
+	public void outstandingRotations(Threads threads) throws Exception {
+		CountDownLatch inspecting = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Cube cube = new Cube(size, (x, y) -> {}, (x, y) -> {},
+				() -> {
+					inspecting.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				},
+				() -> {});
+
+		CompletableFuture<String> inspection = cube.showAsync();
+		inspecting.await();
+
+		List<CompletableFuture<Void>> rotations = new ArrayList<>(operations);
+		for (int i = 0; i < operations; ++i) {
+			rotations.add(cube.rotateAsync(i % 6, i % size));
+		}
+
+		threads.platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+		threads.virtualThreads = AsyncExecutors.usesVirtualThreads() ? operations : 0;
+
+		release.countDown();
+		inspection.join();
+		CompletableFuture.allOf(rotations.toArray(new CompletableFuture<?>[0])).join();
+	}
+
+}
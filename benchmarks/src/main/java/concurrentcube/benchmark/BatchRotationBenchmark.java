@@ -0,0 +1,64 @@
+package concurrentcube.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import concurrentcube.Cube;
+
+/**
+ * Applying a batch of same-axis moves one by one against
+ * {@link Cube#rotateBatch(int[][])}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchRotationBenchmark {
+
+	@Param({"16", "256"})
+	int size;
+
+	@Param({"100", "1000"})
+	int batchSize;
+
+	private Cube cube;
+	private int[][] moves;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		cube = new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		SplittableRandom random = new SplittableRandom(batchSize);
+		moves = new int[batchSize][];
+		for (int i = 0; i < batchSize; ++i) {
+			moves[i] = new int[] {random.nextBoolean() ? 0 : 5, random.nextInt(size)};
+		}
+	}
+
+	@Benchmark
+	public void moveByMove() throws InterruptedException {
+		for (int[] move : moves) {
+			cube.rotate(move[0], move[1]);
+		}
+	}
+
+	@Benchmark
+	public void batch() throws InterruptedException {
+		cube.rotateBatch(moves);
+	}
+
+}
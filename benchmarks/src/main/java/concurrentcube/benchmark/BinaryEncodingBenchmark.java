@@ -0,0 +1,61 @@
+package concurrentcube.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import concurrentcube.structure.CubeCodec;
+import concurrentcube.structure.CubeState;
+
+/**
+ * Encoding and decoding a cube state with {@link CubeCodec}
+ * against serialising it to its decimal string.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BinaryEncodingBenchmark {
+
+	@Param({"16", "1024"})
+	int size;
+
+	private CubeState state;
+	private ByteBuffer encoded;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		state = new CubeState(size);
+		encoded = ByteBuffer.wrap(CubeCodec.encode(state));
+	}
+
+	@Benchmark
+	public String toDecimalString() {
+		return state.toString();
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return CubeCodec.encode(state);
+	}
+
+	@Benchmark
+	public CubeState decode() {
+		return CubeCodec.decode(encoded.duplicate());
+	}
+
+}
@@ -0,0 +1,84 @@
+package concurrentcube.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import concurrentcube.Cube;
+
+/**
+ * How long rotators are kept out of the cube for a consistent dump:
+ * for a whole serialisation by show(), against only for freezing the cube
+ * by checkpointAsync(). The written checkpoint is waited for after the measurement.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CheckpointBenchmark {
+
+	@Param({"1024"})
+	int size;
+
+	private Path directory;
+	private Cube cube;
+	private CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("cube-checkpoint");
+		cube = Cube.open(directory, size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		for (int i = 0; i < 6 * size; ++i) {
+			cube.rotate(i % 6, (i * 7) % size);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void change() throws InterruptedException {
+		written.join();
+		// The cached serialisation of show() is invalidated by face turns.
+		cube.rotate(0, 0);
+		cube.rotate(5, 0);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		cube.close();
+		try (var files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	@Benchmark
+	public String show() throws InterruptedException {
+		return cube.show();
+	}
+
+	@Benchmark
+	public CompletableFuture<Void> freezeForCheckpoint() throws InterruptedException, IOException {
+		written = cube.checkpointAsync();
+		return written;
+	}
+
+}
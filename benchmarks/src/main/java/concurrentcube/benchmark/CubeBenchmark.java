@@ -0,0 +1,205 @@
+package concurrentcube.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import concurrentcube.Cube;
+import concurrentcube.rotation.RotatorType;
+import concurrentcube.structure.ArrayStickerStorage;
+import concurrentcube.structure.OffHeapStickerStorage;
+import concurrentcube.util.AdmissionPolicy;
+
+/**
+ * Measures throughput and latency of {@link Cube#rotate(int, int)}
+ * and {@link Cube#show()}.
+ *
+ * Thread count is chosen on the command line, e.g.
+ * {@code java -jar benchmarks/target/benchmarks.jar CubeBenchmark -t 8 -p size=64}.
+ * Admission policies are compared with e.g.
+ * {@code CubeBenchmark.mixedWorkload -t 8 -p axisMix=MIXED_AXIS -p policy=FIFO,THROUGHPUT,READER_BATCHING}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CubeBenchmark {
+
+	/**
+	 * Which sides rotators pick from.
+	 * SAME_AXIS keeps every rotation on {@link RotatorType#YZ},
+	 * so rotators only collide on layers.
+	 * MIXED_AXIS picks any side, so axis phases alternate.
+	 */
+	public enum AxisMix {
+		SAME_AXIS,
+		MIXED_AXIS
+	}
+
+	/**
+	 * GENERIC and OFF_HEAP use the public constructors with heap and
+	 * off-heap storage, CREATE uses the engine picked by {@link Cube#create}.
+	 */
+	public enum Engine {
+		GENERIC,
+		OFF_HEAP,
+		CREATE
+	}
+
+	/**
+	 * The {@link AdmissionPolicy} of the cube. THROUGHPUT and READER_BATCHING
+	 * let up to 64 threads or 100 microseconds join ahead of waiters.
+	 */
+	public enum Policy {
+		FIFO,
+		THROUGHPUT,
+		READER_BATCHING;
+
+		AdmissionPolicy create() {
+			switch (this) {
+				case THROUGHPUT:
+					return AdmissionPolicy.throughput(64, 100);
+				case READER_BATCHING:
+					return AdmissionPolicy.readerBatching(64, 100);
+				default:
+					return AdmissionPolicy.fifo();
+			}
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class SharedCube {
+
+		@Param({"3", "4", "16", "128", "1024"})
+		int size;
+
+		@Param({"SAME_AXIS", "MIXED_AXIS"})
+		AxisMix axisMix;
+
+		@Param({"GENERIC"})
+		Engine engine;
+
+		@Param({"FIFO"})
+		Policy policy;
+
+		Cube cube;
+		int[] sides;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			switch (engine) {
+				case GENERIC:
+					cube = new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {},
+							new ArrayStickerStorage(size), policy.create());
+					break;
+				case OFF_HEAP:
+					cube = new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {},
+							new OffHeapStickerStorage(size), policy.create());
+					break;
+				case CREATE:
+					cube = Cube.create(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {},
+							policy.create());
+					break;
+			}
+			sides = axisMix == AxisMix.SAME_AXIS ? sidesOf(RotatorType.YZ) : new int[] {0, 1, 2, 3, 4, 5};
+		}
+
+		private static int[] sidesOf(RotatorType rotatorType) {
+			int[] all = new int[6];
+			int count = 0;
+			for (int side = 0; side < 6; ++side) {
+				if (RotatorType.get(side) == rotatorType) {
+					all[count++] = side;
+				}
+			}
+			int[] result = new int[count];
+			System.arraycopy(all, 0, result, 0, count);
+			return result;
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class ReadRatio {
+
+		// Percentage of operations in mixedWorkload that are show() calls.
+		@Param({"1", "10", "50"})
+		int readPercent;
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadRandom {
+
+		SplittableRandom random;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			random = new SplittableRandom(Thread.currentThread().getId());
+		}
+	}
+
+	@Benchmark
+	public void rotate(SharedCube shared, ThreadRandom rnd) throws InterruptedException {
+		int side = shared.sides[rnd.random.nextInt(shared.sides.length)];
+		shared.cube.rotate(side, rnd.random.nextInt(shared.size));
+	}
+
+	/**
+	 * Every rotator turns the middle layer, so all of them contend for one layer lock.
+	 */
+	@Benchmark
+	public void rotateHotLayer(SharedCube shared, ThreadRandom rnd) throws InterruptedException {
+		int side = shared.sides[rnd.random.nextInt(shared.sides.length)];
+		shared.cube.rotate(side, shared.size / 2);
+	}
+
+	@Benchmark
+	public void rotateHotLayerCombining(SharedCube shared, ThreadRandom rnd) throws InterruptedException {
+		int side = shared.sides[rnd.random.nextInt(shared.sides.length)];
+		shared.cube.rotateCombining(side, shared.size / 2);
+	}
+
+	@Benchmark
+	public String show(SharedCube shared) throws InterruptedException {
+		return shared.cube.show();
+	}
+
+	@Benchmark
+	public Object mixedWorkload(SharedCube shared, ReadRatio ratio, ThreadRandom rnd)
+			throws InterruptedException {
+		if (rnd.random.nextInt(100) < ratio.readPercent) {
+			return shared.cube.show();
+		}
+		int side = shared.sides[rnd.random.nextInt(shared.sides.length)];
+		shared.cube.rotate(side, rnd.random.nextInt(shared.size));
+		return null;
+	}
+
+	/**
+	 * Like mixedWorkload, with reads that do not stall rotators
+	 * unless they keep overlapping rotations.
+	 */
+	@Benchmark
+	public Object mixedWorkloadOptimistic(SharedCube shared, ReadRatio ratio, ThreadRandom rnd)
+			throws InterruptedException {
+		if (rnd.random.nextInt(100) < ratio.readPercent) {
+			return shared.cube.showOptimistic();
+		}
+		int side = shared.sides[rnd.random.nextInt(shared.sides.length)];
+		shared.cube.rotate(side, rnd.random.nextInt(shared.size));
+		return null;
+	}
+
+}
@@ -0,0 +1,77 @@
+package concurrentcube.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import concurrentcube.Cube;
+
+/**
+ * Rotations of an in-memory cube against those of a journaled one,
+ * whose concurrent rotations share the fsyncs of the journal.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+	@Param({"false", "true"})
+	boolean journaled;
+
+	@Param({"16"})
+	int size;
+
+	private Path directory;
+	private Cube cube;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		if (journaled) {
+			directory = Files.createTempDirectory("cube-journal");
+			cube = Cube.open(directory, size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		} else {
+			cube = Cube.create(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		cube.close();
+		if (directory != null) {
+			try (var files = Files.list(directory)) {
+				for (Path file : (Iterable<Path>) files::iterator) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(directory);
+		}
+	}
+
+	@Benchmark
+	public void rotate() throws InterruptedException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		cube.rotate(random.nextInt(6), random.nextInt(size));
+	}
+
+}
@@ -0,0 +1,65 @@
+package concurrentcube.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import concurrentcube.Cube;
+
+/**
+ * Rotations of a large cube applied at once against logged and applied
+ * when the log is full, and reading single stickers of a lazy cube.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LazyRotationBenchmark {
+
+	@Param({"1024"})
+	int size;
+
+	private Cube eager;
+	private Cube lazy;
+	private int move;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		eager = Cube.create(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		lazy = Cube.createLazy(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+	}
+
+	@Benchmark
+	public void eagerRotate() throws InterruptedException {
+		++move;
+		eager.rotate(move % 6, (move * 7) % size);
+	}
+
+	@Benchmark
+	public void lazyRotate() throws InterruptedException {
+		++move;
+		lazy.rotate(move % 6, (move * 7) % size);
+	}
+
+	// One read for every 64 moves.
+	@Benchmark
+	public int lazyRotateAndShowSquare() throws InterruptedException {
+		++move;
+		lazy.rotate(move % 6, (move * 7) % size);
+		return (move & 63) == 0 ? lazy.showSquare(move % 6, move % size, (move * 3) % size) : 0;
+	}
+
+}
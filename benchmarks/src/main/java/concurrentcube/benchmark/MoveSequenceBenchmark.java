@@ -0,0 +1,67 @@
+package concurrentcube.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import concurrentcube.Cube;
+import concurrentcube.rotation.MoveSequence;
+
+/**
+ * Applying a macro move by move against applying it
+ * as one compiled {@link MoveSequence}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoveSequenceBenchmark {
+
+	@Param({"4", "16", "128"})
+	int size;
+
+	@Param({"20", "100"})
+	int length;
+
+	private Cube cube;
+	private int[][] moves;
+	private MoveSequence sequence;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		cube = Cube.create(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		SplittableRandom random = new SplittableRandom(length);
+		moves = new int[length][];
+		for (int i = 0; i < length; ++i) {
+			moves[i] = new int[] {random.nextInt(6), random.nextInt(size)};
+		}
+		sequence = cube.compile(moves);
+	}
+
+	@Benchmark
+	public void moveByMove() throws InterruptedException {
+		for (int[] move : moves) {
+			cube.rotate(move[0], move[1]);
+		}
+	}
+
+	@Benchmark
+	public void compiled() throws InterruptedException {
+		cube.rotate(sequence);
+	}
+
+}
@@ -0,0 +1,87 @@
+package concurrentcube.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import concurrentcube.Cube;
+
+/**
+ * Reopening a cube kept in a directory: restored from its checkpoint,
+ * against mapped from its file.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RestartBenchmark {
+
+	@Param({"1024"})
+	int size;
+
+	private Path checkpointed;
+	private Path mapped;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		checkpointed = Files.createTempDirectory("cube-checkpointed");
+		try (Cube cube = Cube.open(checkpointed, size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})) {
+			scramble(cube);
+			cube.checkpoint();
+		}
+		mapped = Files.createTempDirectory("cube-mapped");
+		try (Cube cube = Cube.openMapped(mapped, size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})) {
+			scramble(cube);
+		}
+	}
+
+	private void scramble(Cube cube) throws InterruptedException {
+		for (int i = 0; i < 6 * size; ++i) {
+			cube.rotateCombining(i % 6, (i * 7) % size);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		for (Path directory : new Path[] {checkpointed, mapped}) {
+			try (var files = Files.list(directory)) {
+				for (Path file : (Iterable<Path>) files::iterator) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(directory);
+		}
+	}
+
+	@Benchmark
+	public Cube fromCheckpoint() throws IOException {
+		Cube cube = Cube.open(checkpointed, size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		cube.close();
+		return cube;
+	}
+
+	@Benchmark
+	public Cube fromMappedFile() throws IOException {
+		Cube cube = Cube.openMapped(mapped, size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		cube.close();
+		return cube;
+	}
+
+}
@@ -0,0 +1,94 @@
+package concurrentcube.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import concurrentcube.Cube;
+
+/**
+ * Single-threaded rotations through {@link Cube#rotate(int, int)},
+ * meant to be run with the GC profiler.
+ *
+ * Running this class' main method executes the benchmark with
+ * {@link GCProfiler} and fails if any rotation allocates on the heap.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RotationAllocationBenchmark {
+
+	private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+	// Bytes per operation that are still treated as no allocation,
+	// to absorb profiler noise.
+	private static final double ALLOCATION_TOLERANCE = 1.0;
+
+	@Param({"3", "16", "128", "1024"})
+	int size;
+
+	private Cube cube;
+	private int side;
+	private int layer;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		cube = new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+	}
+
+	@Benchmark
+	public void rotate() throws InterruptedException {
+		// Cycles through every side and every layer,
+		// so both layer moves and face turns are measured.
+		side = (side + 1) % 6;
+		if (side == 0) {
+			layer = (layer + 1) % size;
+		}
+		cube.rotate(side, layer);
+	}
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(RotationAllocationBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build();
+
+		boolean allocates = false;
+		for (RunResult runResult : new Runner(options).run()) {
+			Result<?> allocation = runResult.getSecondaryResults().get(ALLOCATION_METRIC);
+			if (allocation != null && allocation.getScore() > ALLOCATION_TOLERANCE) {
+				System.err.println(runResult.getParams() + ": " + allocation.getScore() + " B/op allocated");
+				allocates = true;
+			}
+		}
+
+		if (allocates) {
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package concurrentcube.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import concurrentcube.Cube;
+
+/**
+ * Single-threaded move throughput of 2x2 and 3x3 cubes,
+ * generic engine against the bit-packed one picked by {@link Cube#create}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SmallCubeBenchmark {
+
+	public enum Engine {
+		GENERIC,
+		PACKED
+	}
+
+	@Param({"2", "3"})
+	int size;
+
+	@Param({"GENERIC", "PACKED"})
+	Engine engine;
+
+	private Cube cube;
+	private int move;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		cube = engine == Engine.GENERIC
+				? new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})
+				: Cube.create(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+	}
+
+	@Benchmark
+	public void rotate() throws InterruptedException {
+		move = move + 1 == 6 * size ? 0 : move + 1;
+		cube.rotate(move % 6, move / 6);
+	}
+
+}
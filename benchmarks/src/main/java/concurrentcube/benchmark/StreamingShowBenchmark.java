@@ -0,0 +1,80 @@
+package concurrentcube.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import concurrentcube.Cube;
+
+/**
+ * Writing the cube to a channel through {@link Cube#show()} and a byte array
+ * against streaming it with {@link Cube#show(WritableByteChannel)}
+ * or into a reused {@link ByteBuffer}.
+ * Every operation rotates first, so show() cannot return a cached string.
+ * Allocation is compared with {@code -prof gc}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamingShowBenchmark {
+
+	@Param({"128", "1024"})
+	int size;
+
+	private Cube cube;
+	private WritableByteChannel channel;
+	private ByteBuffer buffer;
+	private int layer;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		cube = new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		channel = Channels.newChannel(OutputStream.nullOutputStream());
+		buffer = ByteBuffer.allocateDirect(6 * size * size);
+	}
+
+	@Benchmark
+	public void showString() throws InterruptedException, IOException {
+		cube.rotate(0, nextLayer());
+		channel.write(ByteBuffer.wrap(cube.show().getBytes(StandardCharsets.ISO_8859_1)));
+	}
+
+	@Benchmark
+	public void showChannel() throws InterruptedException, IOException {
+		cube.rotate(0, nextLayer());
+		cube.show(channel);
+	}
+
+	@Benchmark
+	public void showByteBuffer() throws InterruptedException, IOException {
+		cube.rotate(0, nextLayer());
+		buffer.clear();
+		cube.show(buffer);
+	}
+
+	private int nextLayer() {
+		layer = (layer + 1) % size;
+		return layer;
+	}
+
+}
@@ -1,41 +1,429 @@
 package concurrentcube;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
 
 import concurrentcube.inspection.CubeInspector;
+import concurrentcube.inspection.SnapshotPublisher;
+import concurrentcube.persistence.CubeStore;
 import concurrentcube.rotation.CubeRotator;
+import concurrentcube.rotation.LazyCubeRotator;
+import concurrentcube.rotation.MoveSequence;
+import concurrentcube.rotation.MoveTableCache;
+import concurrentcube.rotation.PackedCubeRotator;
+import concurrentcube.rotation.PermutationCubeRotator;
+import concurrentcube.structure.ArrayStickerStorage;
+import concurrentcube.structure.CopyOnWriteStickerStorage;
 import concurrentcube.structure.CubeState;
+import concurrentcube.structure.MappedStickerStorage;
+import concurrentcube.structure.OffHeapStickerStorage;
+import concurrentcube.structure.PackedStickerStorage;
+import concurrentcube.structure.StickerStorage;
 import concurrentcube.util.AccessManager;
+import concurrentcube.util.AdmissionPolicy;
+import concurrentcube.util.AsyncExecutors;
+import concurrentcube.util.InterruptibleFuture;
 
 /**
  * Represents Rubik's cube that
  * enables executing non-colliding 
  * rotations concurrently.
  */
-public class Cube {
+public class Cube implements Closeable {
+
+	private static final int OPTIMISTIC_SHOW_ATTEMPTS = 8;
+	private static final String STICKERS_FILE = "stickers";
 
 	private final CubeRotator rotator;
 	private final CubeInspector inspector;
+	private final SnapshotPublisher snapshots;
+	private final CubeState state;
+	private final AccessManager accessManager;
 	private final int size;
 
+	// Where the cube is kept durably, null for a cube in memory only.
+	private CubeStore store;
+
 	public Cube(int size,
 			BiConsumer<Integer, Integer> beforeRotation,
 			BiConsumer<Integer, Integer> afterRotation,
 			Runnable beforeShowing,
 			Runnable afterShowing) {
+		this(size, beforeRotation, afterRotation, beforeShowing, afterShowing, new ArrayStickerStorage(size));
+	}
+
+	/**
+	 * Creates a cube whose stickers are kept in the given storage,
+	 * e.g. {@link concurrentcube.structure.OffHeapStickerStorage}
+	 * for cubes too large for the heap.
+	 */
+	public Cube(int size,
+			BiConsumer<Integer, Integer> beforeRotation,
+			BiConsumer<Integer, Integer> afterRotation,
+			Runnable beforeShowing,
+			Runnable afterShowing,
+			StickerStorage storage) {
+		this(size, beforeRotation, afterRotation, beforeShowing, afterShowing, storage, AdmissionPolicy.fifo());
+	}
+
+	/**
+	 * Creates a cube that admits threads ahead of waiting ones
+	 * as the given policy allows.
+	 */
+	public Cube(int size,
+			BiConsumer<Integer, Integer> beforeRotation,
+			BiConsumer<Integer, Integer> afterRotation,
+			Runnable beforeShowing,
+			Runnable afterShowing,
+			StickerStorage storage,
+			AdmissionPolicy admissionPolicy) {
+		this(size, beforeRotation, afterRotation, beforeShowing, afterShowing, storage, admissionPolicy, null, false);
+	}
+
+	// Rotates with tables from moveTables unless it is null
+	// or the storage has a specialised rotator, and only logs the moves if lazy.
+	private Cube(int size,
+			BiConsumer<Integer, Integer> beforeRotation,
+			BiConsumer<Integer, Integer> afterRotation,
+			Runnable beforeShowing,
+			Runnable afterShowing,
+			StickerStorage storage,
+			AdmissionPolicy admissionPolicy,
+			MoveTableCache moveTables,
+			boolean lazy) {
+		if (storage.size() != size) {
+			throw new IllegalArgumentException("Storage of size " + storage.size()
+					+ " does not match cube size " + size + ".");
+		}
 		this.size = size;
-		AccessManager accessManager = new AccessManager(size);
-		CubeState state = new CubeState(size);
-		rotator = new CubeRotator(state, beforeRotation, afterRotation, accessManager);
+		accessManager = new AccessManager(size, admissionPolicy);
+		state = new CubeState(storage);
+		CubeRotator eager;
+		if (storage instanceof PackedStickerStorage) {
+			eager = new PackedCubeRotator(state, (PackedStickerStorage) storage,
+					beforeRotation, afterRotation, accessManager);
+		} else if (moveTables != null) {
+			eager = new PermutationCubeRotator(state, storage, moveTables,
+					beforeRotation, afterRotation, accessManager);
+		} else {
+			eager = new CubeRotator(state, beforeRotation, afterRotation, accessManager);
+		}
+		rotator = lazy
+				? new LazyCubeRotator(state, eager, LazyCubeRotator.DEFAULT_LOG_CAPACITY,
+						beforeRotation, afterRotation, accessManager)
+				: eager;
 		inspector = new CubeInspector(state, beforeShowing, afterShowing, accessManager);
+		snapshots = new SnapshotPublisher(state, accessManager, AsyncExecutors.defaultExecutor());
+		// Publishing after rotations would apply a lazy cube's log all the time,
+		// so its snapshots are only taken when stale reads find none recent enough.
+		if (!lazy) {
+			accessManager.setQuiescenceListener(snapshots);
+		}
+	}
+
+	/**
+	 * Creates a cube with the storage best suited for its size:
+	 * small cubes are bit-packed and rotated with mask and shift programs,
+	 * larger ones are kept in an array and rotated with move tables
+	 * shared by all cubes of the same size.
+	 */
+	public static Cube create(int size,
+			BiConsumer<Integer, Integer> beforeRotation,
+			BiConsumer<Integer, Integer> afterRotation,
+			Runnable beforeShowing,
+			Runnable afterShowing) {
+		return create(size, beforeRotation, afterRotation, beforeShowing, afterShowing, AdmissionPolicy.fifo());
+	}
+
+	public static Cube create(int size,
+			BiConsumer<Integer, Integer> beforeRotation,
+			BiConsumer<Integer, Integer> afterRotation,
+			Runnable beforeShowing,
+			Runnable afterShowing,
+			AdmissionPolicy admissionPolicy) {
+		if (size <= PackedStickerStorage.MAX_SIZE) {
+			return new Cube(size, beforeRotation, afterRotation, beforeShowing, afterShowing,
+					new PackedStickerStorage(size), admissionPolicy);
+		}
+		return new Cube(size, beforeRotation, afterRotation, beforeShowing, afterShowing,
+				new ArrayStickerStorage(size), admissionPolicy, MoveTableCache.shared(), false);
+	}
+
+	/**
+	 * Creates a cube whose rotations only log their moves, in O(1) however large
+	 * the cube is, see {@link LazyCubeRotator}. The log is applied to the stickers
+	 * when the cube is shown as a whole or the log is full; {@link #showSquare}
+	 * reads single stickers without applying it. {@link #showStale} only takes
+	 * snapshots, applying the log, when it finds none recent enough.
+	 * Cubes too large for an array keep their stickers off-heap.
+	 */
+	public static Cube createLazy(int size,
+			BiConsumer<Integer, Integer> beforeRotation,
+			BiConsumer<Integer, Integer> afterRotation,
+			Runnable beforeShowing,
+			Runnable afterShowing) {
+		StickerStorage storage = 6L * size * size <= Integer.MAX_VALUE - 8
+				? new ArrayStickerStorage(size)
+				: new OffHeapStickerStorage(size);
+		return new Cube(size, beforeRotation, afterRotation, beforeShowing, afterShowing,
+				storage, AdmissionPolicy.fifo(), null, true);
+	}
+
+	/**
+	 * Opens the cube kept in the directory, creating it solved if there is none.
+	 * The cube is restored from its last checkpoint and the journal of moves since,
+	 * and every rotation is journaled: it returns once its move is on disk,
+	 * forced together with those of concurrent rotations, see {@link concurrentcube.persistence.MoveJournal}.
+	 * The rotation hooks are not run for the restored moves.
+	 */
+	public static Cube open(Path directory, int size,
+			BiConsumer<Integer, Integer> beforeRotation,
+			BiConsumer<Integer, Integer> afterRotation,
+			Runnable beforeShowing,
+			Runnable afterShowing) throws IOException {
+		// Small cubes are frozen for checkpoints by copying them, larger ones copy-on-write.
+		Cube cube = size <= PackedStickerStorage.MAX_SIZE
+				? create(size, beforeRotation, afterRotation, beforeShowing, afterShowing)
+				: new Cube(size, beforeRotation, afterRotation, beforeShowing, afterShowing,
+						new CopyOnWriteStickerStorage(new ArrayStickerStorage(size)),
+						AdmissionPolicy.fifo(), MoveTableCache.shared(), false);
+		cube.store = CubeStore.open(directory, cube.state, cube.accessManager, cube.rotator::replay);
+		cube.rotator.setJournal(cube.store.journal());
+		return cube;
+	}
+
+	/**
+	 * Opens the cube kept in the directory like {@link #open}, with its stickers
+	 * in a memory-mapped file, see {@link MappedStickerStorage}. If the cube was
+	 * synced or closed after its last change, reopening it only maps the file,
+	 * however large the cube is.
+	 */
+	public static Cube openMapped(Path directory, int size,
+			BiConsumer<Integer, Integer> beforeRotation,
+			BiConsumer<Integer, Integer> afterRotation,
+			Runnable beforeShowing,
+			Runnable afterShowing) throws IOException {
+		Files.createDirectories(directory);
+		MappedStickerStorage storage = MappedStickerStorage.open(directory.resolve(STICKERS_FILE), size);
+		Cube cube = new Cube(size, beforeRotation, afterRotation, beforeShowing, afterShowing,
+				new CopyOnWriteStickerStorage(storage));
+		cube.store = CubeStore.open(directory, cube.state, storage, cube.accessManager, cube.rotator::replay);
+		cube.rotator.setJournal(cube.store.journal());
+		return cube;
+	}
+
+	/**
+	 * Writes a mapped cube back to its file (msync), so that it can be reopened
+	 * without replaying the moves so far, see {@link CubeStore#sync}.
+	 * Cheaper than {@link #checkpoint()}, but keeps the journal.
+	 */
+	public void sync() throws InterruptedException {
+		if (store == null) {
+			throw new IllegalStateException("Cube is not kept in a directory.");
+		}
+		store.sync();
+	}
+
+	/**
+	 * Writes a checkpoint of a cube opened with {@link #open} or {@link #openMapped}, so that
+	 * its journal so far can be discarded and need not be replayed.
+	 * Rotators are kept out only while the cube is frozen, not while it is written,
+	 * see {@link CubeStore#checkpointAsync}.
+	 */
+	public void checkpoint() throws InterruptedException, IOException {
+		if (store == null) {
+			throw new IllegalStateException("Cube is not kept in a directory.");
+		}
+		store.checkpoint();
+	}
+
+	/**
+	 * Freezes the cube for a checkpoint and writes it on the default executor,
+	 * see {@link AsyncExecutors}. Returns once the cube is frozen.
+	 */
+	public CompletableFuture<Void> checkpointAsync() throws InterruptedException, IOException {
+		return checkpointAsync(AsyncExecutors.defaultExecutor());
+	}
+
+	public CompletableFuture<Void> checkpointAsync(Executor executor) throws InterruptedException, IOException {
+		if (store == null) {
+			throw new IllegalStateException("Cube is not kept in a directory.");
+		}
+		return store.checkpointAsync(executor);
+	}
+
+	/**
+	 * Closes the journal of a cube opened with {@link #open} or {@link #openMapped},
+	 * after writing the moves not yet on disk, and syncs a mapped cube.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (store != null) {
+			store.close();
+		}
 	}
 
 	public void rotate(int side, int layer) throws InterruptedException {
 		rotator.rotate(side, layer);
 	}
 
+	// Threads waiting to be admitted, see AccessManager#waitingCount.
+	int waitingCount() {
+		return accessManager.waitingCount();
+	}
+
+	// Moves a lazy cube has logged and not yet applied, 0 for other cubes.
+	int unappliedMoves() {
+		return rotator instanceof LazyCubeRotator ? ((LazyCubeRotator) rotator).logLength() : 0;
+	}
+
+	/**
+	 * Rotates like {@link #rotate(int, int)}, combining rotations that
+	 * contend for the same layer into their net effect,
+	 * see {@link CubeRotator#rotateCombining}.
+	 */
+	public void rotateCombining(int side, int layer) throws InterruptedException {
+		rotator.rotateCombining(side, layer);
+	}
+
+	/**
+	 * Applies moves, each given as {side, layer}, with the same result
+	 * as rotating them one by one in order. Consecutive moves of one axis
+	 * are admitted together and their layers rotated in parallel
+	 * on the common fork-join pool.
+	 */
+	public void rotateBatch(int[][] moves) throws InterruptedException {
+		rotateBatch(moves, ForkJoinPool.commonPool());
+	}
+
+	public void rotateBatch(int[][] moves, Executor executor) throws InterruptedException {
+		rotator.rotateBatch(moves, executor);
+	}
+
+	/**
+	 * Compiles moves, each given as {side, layer}, into a sequence
+	 * that can be applied to any cube of this size at once.
+	 */
+	public MoveSequence compile(int[][] moves) {
+		return MoveSequence.compile(size, moves);
+	}
+
+	/**
+	 * Applies a compiled sequence with a single exclusive access,
+	 * in one pass over the stickers it moves.
+	 */
+	public void rotate(MoveSequence sequence) throws InterruptedException {
+		rotator.rotate(sequence);
+	}
+
 	public String show() throws InterruptedException {
 		return inspector.show();
 	}
 
+	/**
+	 * Writes what {@link #show()} returns to out, encoding the stickers
+	 * as they are read instead of building a string first.
+	 */
+	public void show(Appendable out) throws InterruptedException, IOException {
+		inspector.show(out);
+	}
+
+	/**
+	 * Writes what {@link #show()} returns to out as Latin-1 bytes.
+	 *
+	 * @throws java.nio.BufferOverflowException if out has less than 6 * size * size bytes remaining
+	 */
+	public void show(ByteBuffer out) throws InterruptedException, IOException {
+		inspector.show(out);
+	}
+
+	/**
+	 * Writes what {@link #show()} returns to out as Latin-1 bytes,
+	 * through a buffer of bounded size.
+	 */
+	public void show(WritableByteChannel out) throws InterruptedException, IOException {
+		inspector.show(out);
+	}
+
+	/**
+	 * Shows the cube in the binary encoding of {@link concurrentcube.structure.CubeCodec},
+	 * 3 bits per sticker, from which the state can be decoded elsewhere.
+	 */
+	public byte[] showBinary() throws InterruptedException {
+		return inspector.showBinary();
+	}
+
+	/**
+	 * Shows one sticker, as {@link #show()} would at its position:
+	 * the colour at the given row and column of the side as seen from the front.
+	 * A lazy cube reads it without applying its log of moves.
+	 */
+	public int showSquare(int side, int row, int column) throws InterruptedException {
+		return inspector.showSquare(() -> rotator.getSquare(side, row, column));
+	}
+
+	/**
+	 * Shows the cube without stalling rotators, falling back to {@link #show()}
+	 * after a few attempts that overlapped a rotation,
+	 * see {@link CubeInspector#showOptimistic}.
+	 */
+	public String showOptimistic() throws InterruptedException {
+		return showOptimistic(OPTIMISTIC_SHOW_ATTEMPTS);
+	}
+
+	public String showOptimistic(int maxAttempts) throws InterruptedException {
+		return inspector.showOptimistic(maxAttempts);
+	}
+
+	/**
+	 * Returns a consistent picture of the cube at most maxAge old, in O(1),
+	 * without waiting and without running the showing hooks.
+	 * Once this has been called, snapshots are published in the background
+	 * after rotators leave the cube, see {@link SnapshotPublisher}; the result
+	 * is empty on the first call and whenever the latest snapshot is older
+	 * than maxAge and the cube has changed since.
+	 */
+	public Optional<String> showStale(Duration maxAge) {
+		return snapshots.showStale(maxAge.toNanos());
+	}
+
+	/**
+	 * Rotates on the default executor, see {@link AsyncExecutors}.
+	 * Cancelling the future interrupts the rotation: one still waiting
+	 * to be admitted or for its layer is not applied, one that holds
+	 * its layer is still applied.
+	 */
+	public CompletableFuture<Void> rotateAsync(int side, int layer) {
+		return rotateAsync(side, layer, AsyncExecutors.defaultExecutor());
+	}
+
+	public CompletableFuture<Void> rotateAsync(int side, int layer, Executor executor) {
+		return InterruptibleFuture.submit(() -> {
+			rotate(side, layer);
+			return null;
+		}, executor);
+	}
+
+	/**
+	 * Shows the cube on the default executor, see {@link AsyncExecutors}.
+	 * Cancelling the future interrupts the inspection.
+	 */
+	public CompletableFuture<String> showAsync() {
+		return showAsync(AsyncExecutors.defaultExecutor());
+	}
+
+	public CompletableFuture<String> showAsync(Executor executor) {
+		return InterruptibleFuture.submit(this::show, executor);
+	}
+
 }
@@ -1,9 +1,29 @@
 package concurrentcube;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -13,8 +33,20 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.RepeatedTest;
 import org.junit.jupiter.api.Test;
 
+import concurrentcube.inspection.SnapshotPublisher;
+import concurrentcube.rotation.CubeRotator;
+import concurrentcube.rotation.LazyCubeRotator;
 import concurrentcube.rotation.RotatorType;
+import concurrentcube.structure.ArrayStickerStorage;
+import concurrentcube.structure.CubeCodec;
+import concurrentcube.structure.CubeState;
+import concurrentcube.structure.MappedStickerStorage;
+import concurrentcube.structure.OffHeapStickerStorage;
+import concurrentcube.structure.PackedStickerStorage;
 import concurrentcube.structure.SideType;
+import concurrentcube.structure.StickerStorage;
+import concurrentcube.util.AccessManager;
+import concurrentcube.util.AdmissionPolicy;
 
 public class CubeTest {
 
@@ -337,6 +369,880 @@ public class CubeTest {
 		}
 	}
 
+	private static final int OFF_HEAP_CUBE_SIZE = 70;
+
+	@Test
+	public void shouldRotateOffHeapCubeLikeHeapCube() {
+		// Size larger than one storage tile, so rotations cross tile borders.
+		Cube heapCube = new Cube(OFF_HEAP_CUBE_SIZE, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		Cube offHeapCube = new Cube(OFF_HEAP_CUBE_SIZE, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {},
+				new OffHeapStickerStorage(OFF_HEAP_CUBE_SIZE));
+		try {
+			for (int i = 0; i < 6 * OFF_HEAP_CUBE_SIZE; ++i) {
+				heapCube.rotate(i % 6, (i * 7) % OFF_HEAP_CUBE_SIZE);
+				offHeapCube.rotate(i % 6, (i * 7) % OFF_HEAP_CUBE_SIZE);
+			}
+			Assertions.assertEquals(heapCube.show(), offHeapCube.show());
+		} catch (InterruptedException ignored) {
+		}
+	}
+
+	@Test
+	public void shouldRotatePackedCubesLikeGenericCubes() {
+		for (int size = 1; size <= PackedStickerStorage.MAX_SIZE; ++size) {
+			Cube genericCube = new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+			Cube packedCube = Cube.create(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+			try {
+				for (int i = 0; i < 1000; ++i) {
+					int side = (i * 5 + i / 6) % 6;
+					int layer = (i * 7) % size;
+					genericCube.rotate(side, layer);
+					packedCube.rotate(side, layer);
+					Assertions.assertEquals(genericCube.show(), packedCube.show());
+				}
+			} catch (InterruptedException ignored) {
+			}
+		}
+	}
+
+	@Test
+	public void shouldRotateWithMoveTablesLikeGenericCubes() {
+		for (int size : new int[] {4, 5, 17}) {
+			Cube genericCube = new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+			Cube tableCube = Cube.create(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+			try {
+				for (int i = 0; i < 600; ++i) {
+					int side = (i * 5 + i / 6) % 6;
+					int layer = (i * 7) % size;
+					genericCube.rotate(side, layer);
+					tableCube.rotate(side, layer);
+				}
+				Assertions.assertEquals(genericCube.show(), tableCube.show());
+			} catch (InterruptedException ignored) {
+			}
+		}
+	}
+
+	@Test
+	public void shouldApplyCompiledSequenceLikeSeparateRotations() {
+		int[][] moves = {{1, 2}, {0, 3}, {5, 2}, {0, 0}, {4, 0}, {3, 1}, {2, 3}, {5, 0}};
+		Cube tableCube = Cube.create(4, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		try {
+			for (int[] move : moves) {
+				cube.rotate(move[0], move[1]);
+			}
+			// Turned faces take the logical path, untouched ones the storage one.
+			cube.rotate(cube.compile(moves));
+			tableCube.rotate(tableCube.compile(moves));
+			tableCube.rotate(tableCube.compile(moves));
+			Assertions.assertEquals(cube.show(), tableCube.show());
+		} catch (InterruptedException ignored) {
+		}
+	}
+
+	@Test
+	public void shouldRotateBatchLikeSeparateRotations() {
+		int size = 9;
+		int[][] moves = new int[500][];
+		for (int i = 0; i < moves.length; ++i) {
+			// Long same-axis runs, with repeated layers inside them.
+			int side = (i / 50) % 2 == 0 ? (i % 3 == 0 ? 0 : 5) : (i % 2 == 0 ? 1 : 3);
+			moves[i] = new int[] {side, (i * 7) % size};
+		}
+		AtomicInteger hooks = new AtomicInteger();
+		Cube sequentialCube = new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		Cube batchCube = new Cube(size,
+				(x, y) -> hooks.incrementAndGet(),
+				(x, y) -> hooks.incrementAndGet(),
+				() -> {}, () -> {});
+		try {
+			for (int[] move : moves) {
+				sequentialCube.rotate(move[0], move[1]);
+			}
+			batchCube.rotateBatch(moves);
+			Assertions.assertEquals(sequentialCube.show(), batchCube.show());
+			Assertions.assertEquals(2 * moves.length, hooks.get());
+		} catch (InterruptedException ignored) {
+		}
+	}
+
+	@Test
+	public void shouldLeaveBatchOnlyAfterAllLayersFailedOrRotated() throws InterruptedException {
+		int size = 9;
+		int[][] moves = new int[size][];
+		for (int layer = 0; layer < size; ++layer) {
+			moves[layer] = new int[] {0, layer};
+		}
+		AtomicInteger rotatingAfterFailure = new AtomicInteger();
+		AtomicBoolean returned = new AtomicBoolean();
+		Cube failingCube = new Cube(size,
+				(x, y) -> {
+					if (y == 0) {
+						throw new IllegalStateException("hook failed");
+					}
+					if (returned.get()) {
+						rotatingAfterFailure.incrementAndGet();
+					}
+				},
+				(x, y) -> {}, () -> {}, () -> {});
+
+		// Other layers' tasks may still run when the first chunk fails.
+		Assertions.assertThrows(IllegalStateException.class,
+				() -> failingCube.rotateBatch(moves, task -> new Thread(() -> {
+					try {
+						Thread.sleep(20);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					task.run();
+				}).start()));
+		returned.set(true);
+		failingCube.show();
+		Thread.sleep(100);
+		Assertions.assertEquals(0, rotatingAfterFailure.get());
+	}
+
+	@Test
+	public void shouldCancelAsyncShowWaitingForRotation() throws Exception {
+		CountDownLatch rotating = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		cube = new Cube(4,
+				(x, y) -> {
+					rotating.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				},
+				(x, y) -> {}, () -> {}, () -> {});
+
+		CompletableFuture<Void> rotation = cube.rotateAsync(1, 1);
+		rotating.await();
+		CompletableFuture<String> cancelledShow = cube.showAsync();
+		Assertions.assertTrue(cancelledShow.cancel(true));
+		Assertions.assertThrows(CancellationException.class, cancelledShow::join);
+
+		release.countDown();
+		rotation.join();
+		Assertions.assertEquals(LEFT1_EXPECTED, cube.showAsync().join());
+	}
+
+	@Test
+	public void shouldLetBoundedNumberOfRotatorsJoinAheadOfWaitingInspector() throws Exception {
+		AtomicInteger rotations = new AtomicInteger();
+		CountDownLatch rotating = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		cube = Cube.create(4,
+				(x, y) -> {
+					if (rotations.getAndIncrement() == 0) {
+						rotating.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				},
+				(x, y) -> {}, () -> {}, () -> {},
+				AdmissionPolicy.throughput(1, Long.MAX_VALUE / 1000));
+
+		CompletableFuture<Void> blocked = cube.rotateAsync(0, 0);
+		rotating.await();
+		String[] shown = new String[1];
+		Thread inspector = new Thread(() -> {
+			try {
+				shown[0] = cube.show();
+			} catch (InterruptedException ignored) {
+			}
+		});
+		inspector.start();
+		awaitWaiting(1);
+
+		// joins the working axis ahead of the inspector
+		cube.rotate(0, 1);
+		// the bound is reached, so it waits for the inspector
+		Thread late = new Thread(() -> {
+			try {
+				cube.rotate(5, 0);
+			} catch (InterruptedException ignored) {
+			}
+		});
+		late.start();
+		awaitWaiting(2);
+
+		release.countDown();
+		blocked.join();
+		inspector.join();
+		late.join();
+
+		Cube expected = new Cube(4, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		expected.rotate(0, 0);
+		expected.rotate(0, 1);
+		Assertions.assertEquals(expected.show(), shown[0]);
+		expected.rotate(5, 0);
+		Assertions.assertEquals(expected.show(), cube.show());
+	}
+
+	// Parked threads may still be short of being registered as waiters.
+	private void awaitWaiting(int count) {
+		while (cube.waitingCount() < count) {
+			Thread.onSpinWait();
+		}
+	}
+
+	private static final int COMBINING_ROTATORS = 64;
+
+	@RepeatedTest(10)
+	public void shouldCombineSameLayerRotationsLikeSeparateRotations() throws InterruptedException {
+		for (int size : new int[] {3, 5}) {
+			AtomicInteger hooks = new AtomicInteger();
+			Cube combiningCube = Cube.create(size,
+					(x, y) -> {
+						hooks.incrementAndGet();
+						Thread.yield();
+					},
+					(x, y) -> hooks.incrementAndGet(), () -> {}, () -> {});
+			Cube sequentialCube = new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+
+			// Rotations of one axis commute, so any order gives the same cube.
+			Random random = new Random(size);
+			List<Thread> rotators = new ArrayList<>();
+			for (int i = 0; i < COMBINING_ROTATORS; ++i) {
+				int side = random.nextBoolean() ? 1 : 3;
+				int layer = random.nextBoolean() ? 0 : size / 2;
+				sequentialCube.rotate(side, layer);
+				rotators.add(new Thread(() -> {
+					try {
+						combiningCube.rotateCombining(side, layer);
+					} catch (InterruptedException ignored) {
+					}
+				}));
+			}
+			startThreads(rotators);
+			for (Thread rotator : rotators) {
+				rotator.join();
+			}
+
+			Assertions.assertEquals(sequentialCube.show(), combiningCube.show());
+			Assertions.assertEquals(2 * COMBINING_ROTATORS, hooks.get());
+		}
+	}
+
+	@Test
+	public void shouldFailAllCombinedRotationsWhenHookFails() throws InterruptedException {
+		CountDownLatch blocking = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread[] blocker = new Thread[1];
+		cube = new Cube(4,
+				(x, y) -> {
+					if (Thread.currentThread() != blocker[0]) {
+						throw new IllegalStateException("hook failed");
+					}
+					blocking.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				},
+				(x, y) -> {}, () -> {}, () -> {});
+		blocker[0] = new Thread(() -> {
+			try {
+				cube.rotate(1, 1);
+			} catch (InterruptedException ignored) {
+			}
+		});
+		blocker[0].start();
+		blocking.await();
+
+		// both queue on the held layer, then one of them applies both
+		AtomicInteger failed = new AtomicInteger();
+		List<Thread> combining = new ArrayList<>();
+		for (int i = 0; i < 2; ++i) {
+			combining.add(new Thread(() -> {
+				try {
+					cube.rotateCombining(1, 1);
+				} catch (IllegalStateException e) {
+					failed.incrementAndGet();
+				} catch (InterruptedException ignored) {
+				}
+			}));
+		}
+		startThreads(combining);
+		for (Thread thread : combining) {
+			while (thread.getState() != Thread.State.WAITING) {
+				Thread.onSpinWait();
+			}
+		}
+		release.countDown();
+		blocker[0].join();
+		for (Thread thread : combining) {
+			thread.join();
+		}
+
+		Assertions.assertEquals(2, failed.get());
+		Assertions.assertEquals(LEFT1_EXPECTED, cube.show());
+	}
+
+	@Test
+	public void shouldShowOptimisticallyWithoutRunningShowingHooks() throws InterruptedException {
+		AtomicInteger hooks = new AtomicInteger();
+		cube = new Cube(4, (x, y) -> {}, (x, y) -> {}, hooks::incrementAndGet, hooks::incrementAndGet);
+		cube.rotate(1, 1);
+
+		Assertions.assertEquals(LEFT1_EXPECTED, cube.showOptimistic());
+		Assertions.assertEquals(0, hooks.get());
+	}
+
+	@Test
+	public void shouldShowStaleSnapshotsNoOlderThanAsked() throws InterruptedException {
+		CubeState state = new CubeState(new ArrayStickerStorage(4));
+		AccessManager accessManager = new AccessManager(4, AdmissionPolicy.fifo());
+		CubeRotator rotator = new CubeRotator(state, (x, y) -> {}, (x, y) -> {}, accessManager);
+		BlockingQueue<Runnable> scheduled = new LinkedBlockingQueue<>();
+		SnapshotPublisher snapshots = new SnapshotPublisher(state, accessManager, scheduled::add);
+		accessManager.setQuiescenceListener(snapshots);
+
+		// nothing is published before the first stale read
+		rotator.rotate(1, 1);
+		Assertions.assertTrue(scheduled.isEmpty());
+		Assertions.assertEquals(Optional.empty(), snapshots.showStale(Long.MAX_VALUE));
+		scheduled.take().run();
+		Assertions.assertEquals(Optional.of(LEFT1_EXPECTED), snapshots.showStale(0));
+
+		// then changes are published by the rotators leaving, not by readers
+		rotator.rotate(1, 1);
+		rotator.rotate(1, 1);
+		rotator.rotate(1, 1);
+		Runnable publication = scheduled.take();
+		Assertions.assertEquals(Optional.empty(), snapshots.showStale(0));
+		Assertions.assertEquals(Optional.of(LEFT1_EXPECTED), snapshots.showStale(Long.MAX_VALUE));
+		publication.run();
+		Assertions.assertEquals(Optional.of(SOLVED_EXPECTED), snapshots.showStale(0));
+
+		// published in the background on a real cube
+		cube.rotate(1, 1);
+		Assertions.assertEquals(LEFT1_EXPECTED, awaitStale(cube));
+	}
+
+	// Polls until a snapshot of the cube as it is now has been published.
+	private static String awaitStale(Cube tested) throws InterruptedException {
+		long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+		Optional<String> shown = tested.showStale(Duration.ZERO);
+		while (shown.isEmpty() && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+			shown = tested.showStale(Duration.ZERO);
+		}
+		return shown.orElseThrow();
+	}
+
+	@RepeatedTest(10)
+	public void shouldShowStaleOnlyConsistentStates() throws InterruptedException {
+		cube = new Cube(OPTIMISTIC_SIZE, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		AtomicInteger torn = new AtomicInteger();
+
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; ++i) {
+			Random random = new Random(i);
+			threads.add(new Thread(() -> {
+				try {
+					for (int j = 0; j < OPTIMISTIC_OPERATIONS; ++j) {
+						cube.rotate(random.nextInt(6), random.nextInt(OPTIMISTIC_SIZE));
+					}
+				} catch (InterruptedException ignored) {
+				}
+			}));
+		}
+		threads.add(new Thread(() -> {
+			for (int j = 0; j < OPTIMISTIC_OPERATIONS; ++j) {
+				cube.showStale(Duration.ofMillis(1)).ifPresent(shown -> {
+					int[] colorCounts = new int[6];
+					for (char c : shown.toCharArray()) {
+						++colorCounts[c - '0'];
+					}
+					for (int count : colorCounts) {
+						if (count != OPTIMISTIC_SIZE * OPTIMISTIC_SIZE) {
+							torn.incrementAndGet();
+						}
+					}
+				});
+			}
+		}));
+		startThreads(threads);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Assertions.assertEquals(0, torn.get());
+	}
+
+	@Test
+	public void shouldReserialiseOnlyChangedCube() throws InterruptedException {
+		Random random = new Random(18);
+		List<Cube> cubes = List.of(
+				new Cube(5, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {}),
+				new Cube(5, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {}, new OffHeapStickerStorage(5)),
+				Cube.create(3, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {}),
+				Cube.create(5, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {}));
+		int[] sizes = {5, 5, 3, 5};
+		for (int c = 0; c < cubes.size(); ++c) {
+			Cube tested = cubes.get(c);
+			int size = sizes[c];
+			for (int i = 0; i < 50; ++i) {
+				String shown = tested.show();
+				Assertions.assertSame(shown, tested.show());
+
+				tested.rotate(random.nextInt(6), random.nextInt(size));
+				if (i % 10 == 0) {
+					tested.rotate(tested.compile(new int[][] {{random.nextInt(6), random.nextInt(size)}}));
+				}
+				// showOptimistic serialises the whole cube afresh
+				Assertions.assertEquals(tested.showOptimistic(), tested.show());
+			}
+		}
+	}
+
+	// More stickers than are streamed in one chunk.
+	private static final int STREAMED_SIZE = 120;
+
+	@Test
+	public void shouldStreamWhatShowReturns() throws InterruptedException, IOException {
+		for (Cube tested : List.of(
+				new Cube(STREAMED_SIZE, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {}),
+				Cube.create(3, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {}))) {
+			tested.rotate(1, 1);
+			tested.rotate(0, 0);
+			String expected = tested.show();
+
+			StringBuilder appended = new StringBuilder();
+			tested.show(appended);
+			Assertions.assertEquals(expected, appended.toString());
+
+			ByteBuffer buffer = ByteBuffer.allocate(expected.length());
+			tested.show(buffer);
+			Assertions.assertEquals(expected, new String(buffer.array(), StandardCharsets.ISO_8859_1));
+
+			ByteArrayOutputStream written = new ByteArrayOutputStream();
+			tested.show(Channels.newChannel(written));
+			Assertions.assertEquals(expected, written.toString(StandardCharsets.ISO_8859_1));
+
+			Assertions.assertThrows(BufferOverflowException.class,
+					() -> tested.show(ByteBuffer.allocate(expected.length() - 1)));
+			// the failed inspection has left the cube
+			tested.rotate(2, 0);
+		}
+	}
+
+	@Test
+	public void shouldRefuseToShowCubeTooLargeForString() throws InterruptedException {
+		int size = 18919;
+		// Solved stickers computed on demand, a real storage would take gigabytes.
+		StickerStorage solved = new StickerStorage() {
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public int get(int side, int row, int column) {
+				return side;
+			}
+
+			@Override
+			public void set(int side, int row, int column, int color) {
+			}
+		};
+		Cube huge = new Cube(size, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {}, solved);
+
+		Assertions.assertThrows(IllegalStateException.class, huge::show);
+		Assertions.assertThrows(IllegalStateException.class, huge::showOptimistic);
+		// the failed inspection has left the cube
+		huge.rotate(0, 0);
+	}
+
+	@Test
+	public void shouldDecodeBinaryShownCube() throws InterruptedException {
+		for (Cube tested : List.of(
+				new Cube(STREAMED_SIZE, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {}),
+				Cube.create(3, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {}))) {
+			// face turns leave the generic engine's sides turned
+			tested.rotate(1, 0);
+			tested.rotate(0, 0);
+			tested.rotate(2, 1);
+			byte[] encoded = tested.showBinary();
+			String shown = tested.show();
+
+			Assertions.assertEquals(shown, CubeCodec.decode(ByteBuffer.wrap(encoded)).toString());
+		}
+		// 3 bits per sticker instead of a digit
+		Assertions.assertTrue(CubeCodec.encodedLength(STREAMED_SIZE) * 2.5 < 6 * STREAMED_SIZE * STREAMED_SIZE);
+
+		Cube small = Cube.create(3, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		small.rotate(4, 2);
+		Assertions.assertEquals(small.show(),
+				CubeCodec.decode(ByteBuffer.wrap(small.showBinary()), new PackedStickerStorage(3)).toString());
+
+		byte[] unsupported = small.showBinary();
+		unsupported[0] = CubeCodec.VERSION + 1;
+		Assertions.assertThrows(IllegalArgumentException.class,
+				() -> CubeCodec.decode(ByteBuffer.wrap(unsupported)));
+
+		// headers are checked before the stickers are allocated
+		ByteBuffer truncated = ByteBuffer.allocate(7).put(CubeCodec.VERSION).putInt(18000).putShort((short) 0);
+		Assertions.assertThrows(BufferUnderflowException.class, () -> CubeCodec.decode(truncated.flip()));
+		ByteBuffer oversized = ByteBuffer.allocate(7).put(CubeCodec.VERSION).putInt(30000).putShort((short) 0);
+		Assertions.assertThrows(IllegalArgumentException.class, () -> CubeCodec.decode(oversized.flip()));
+	}
+
+	private static final int JOURNALED_ROTATORS = 4;
+	private static final int JOURNALED_ROTATIONS = 200;
+
+	@Test
+	public void shouldRecoverFromCheckpointAndJournal() throws Exception {
+		Path directory = Files.createTempDirectory("cube");
+		try {
+			String expected;
+			try (Cube journaled = Cube.open(directory, 5, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})) {
+				List<Thread> rotators = new ArrayList<>();
+				for (int i = 0; i < JOURNALED_ROTATORS; ++i) {
+					Random random = new Random(i);
+					rotators.add(new Thread(() -> {
+						try {
+							for (int j = 0; j < JOURNALED_ROTATIONS; ++j) {
+								if (j % 2 == 0) {
+									journaled.rotate(random.nextInt(6), random.nextInt(5));
+								} else {
+									journaled.rotateCombining(random.nextInt(6), random.nextInt(5));
+								}
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}));
+				}
+				rotators.forEach(Thread::start);
+				journaled.checkpoint();
+				for (Thread rotator : rotators) {
+					rotator.join();
+				}
+				journaled.rotateBatch(new int[][] {{0, 1}, {2, 3}, {2, 0}});
+				expected = journaled.show();
+			}
+
+			// A zeroed record left by a crash is ignored.
+			try (var segments = Files.list(directory)) {
+				Path last = segments.filter(file -> file.getFileName().toString().startsWith("journal-"))
+						.sorted().reduce((first, second) -> second).orElseThrow();
+				Files.write(last, new byte[8], StandardOpenOption.APPEND);
+			}
+			try (Cube recovered = Cube.open(directory, 5, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})) {
+				Assertions.assertEquals(expected, recovered.show());
+				recovered.rotate(4, 2);
+				expected = recovered.show();
+			}
+			try (Cube recovered = Cube.open(directory, 5, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})) {
+				Assertions.assertEquals(expected, recovered.show());
+			}
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void shouldRejectMovesOnceJournalIsClosed() throws Exception {
+		Path directory = Files.createTempDirectory("cube");
+		try {
+			Cube journaled = Cube.open(directory, 4, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+			journaled.rotate(1, 2);
+			String expected = journaled.show();
+			journaled.close();
+
+			// the cube is left unchanged and admits later threads
+			Assertions.assertThrows(IllegalStateException.class, () -> journaled.rotate(0, 1));
+			Assertions.assertThrows(IllegalStateException.class, () -> journaled.rotateCombining(2, 1));
+			Assertions.assertThrows(IllegalStateException.class,
+					() -> journaled.rotateBatch(new int[][] {{0, 1}, {5, 2}}));
+			Assertions.assertThrows(IllegalStateException.class,
+					() -> journaled.rotate(journaled.compile(new int[][] {{3, 0}, {4, 3}})));
+			Assertions.assertThrows(IllegalStateException.class, () -> journaled.rotate(0, 1));
+			Assertions.assertEquals(expected, journaled.show());
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void shouldShowStaleRecoveredCube() throws Exception {
+		Path journaledDirectory = Files.createTempDirectory("cube");
+		Path mappedDirectory = Files.createTempDirectory("cube");
+		try {
+			try (Cube journaled = Cube.open(journaledDirectory, 4, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+					Cube mapped = Cube.openMapped(mappedDirectory, 4, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})) {
+				journaled.rotate(1, 1);
+				mapped.rotate(1, 1);
+			}
+			// snapshots show the recovered state, not the solved one the cubes started from
+			try (Cube journaled = Cube.open(journaledDirectory, 4, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+					Cube mapped = Cube.openMapped(mappedDirectory, 4, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})) {
+				Assertions.assertEquals(LEFT1_EXPECTED, awaitStale(journaled));
+				Assertions.assertEquals(LEFT1_EXPECTED, awaitStale(mapped));
+			}
+		} finally {
+			deleteDirectory(journaledDirectory);
+			deleteDirectory(mappedDirectory);
+		}
+	}
+
+	@Test
+	public void shouldRestartMappedCubeFromItsFile() throws Exception {
+		Path directory = Files.createTempDirectory("cube");
+		try {
+			String expected;
+			try (Cube mapped = Cube.openMapped(directory, 5, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})) {
+				// face turns are kept as orientations in the file
+				mapped.rotate(0, 0);
+				mapped.rotate(3, 4);
+				mapped.checkpoint();
+				mapped.rotate(2, 2);
+				mapped.sync();
+				mapped.rotate(5, 0);
+				mapped.rotate(1, 3);
+				expected = mapped.show();
+			}
+			Assertions.assertTrue(MappedStickerStorage.open(directory.resolve("stickers"), 5).isClean());
+			try (Cube reopened = Cube.openMapped(directory, 5, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})) {
+				Assertions.assertEquals(expected, reopened.show());
+			}
+
+			// A file changed after it was synced, as by a crash, is rebuilt from the journal.
+			MappedStickerStorage stickers = MappedStickerStorage.open(directory.resolve("stickers"), 5);
+			stickers.set(0, 0, 0, (stickers.get(0, 0, 0) + 1) % 6);
+			Assertions.assertFalse(stickers.isClean());
+			try (Cube rebuilt = Cube.openMapped(directory, 5, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})) {
+				Assertions.assertEquals(expected, rebuilt.show());
+			}
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void shouldCheckpointFrozenCubeWhileRotatorsGoOn() throws Exception {
+		Path directory = Files.createTempDirectory("cube");
+		try {
+			String expected;
+			try (Cube journaled = Cube.open(directory, 8, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})) {
+				journaled.rotate(0, 0);
+				journaled.rotate(2, 3);
+
+				// The frozen cube is written only after the rotations below.
+				CountDownLatch rotated = new CountDownLatch(1);
+				CompletableFuture<Void> checkpoint = journaled.checkpointAsync(task -> new Thread(() -> {
+					try {
+						rotated.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					task.run();
+				}).start());
+				Random random = new Random(0);
+				for (int i = 0; i < 100; ++i) {
+					journaled.rotate(random.nextInt(6), random.nextInt(8));
+				}
+				journaled.rotate(journaled.compile(new int[][] {{1, 0}, {4, 5}, {3, 7}}));
+				Assertions.assertFalse(checkpoint.isDone());
+				rotated.countDown();
+				checkpoint.get();
+				expected = journaled.show();
+			}
+
+			// Only the moves after the checkpoint are left to replay onto it.
+			try (var files = Files.list(directory)) {
+				Assertions.assertEquals(1, files.filter(file -> file.getFileName().toString().startsWith("journal-")).count());
+			}
+			try (Cube recovered = Cube.open(directory, 8, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {})) {
+				Assertions.assertEquals(expected, recovered.show());
+			}
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	private static void deleteDirectory(Path directory) throws IOException {
+		try (var files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	private static final int LAZY_SIZE = 5;
+	private static final int LAZY_ROTATIONS = 300;
+
+	@Test
+	public void shouldRotateLazilyLikeEagerly() throws InterruptedException {
+		Cube lazy = Cube.createLazy(LAZY_SIZE, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		Cube eager = new Cube(LAZY_SIZE, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		Random random = new Random(25);
+		for (int i = 0; i < LAZY_ROTATIONS; ++i) {
+			int side = random.nextInt(6);
+			int layer = random.nextInt(LAZY_SIZE);
+			switch (i % 4) {
+				case 0:
+					lazy.rotate(side, layer);
+					eager.rotate(side, layer);
+					break;
+				case 1:
+					lazy.rotateCombining(side, layer);
+					eager.rotateCombining(side, layer);
+					break;
+				case 2:
+					int[][] moves = {{side, layer}, {SideType.getOpposite(side), layer}, {random.nextInt(6), 0}};
+					lazy.rotateBatch(moves);
+					eager.rotateBatch(moves);
+					break;
+				default:
+					int[][] sequence = {{side, layer}, {random.nextInt(6), layer}};
+					lazy.rotate(lazy.compile(sequence));
+					eager.rotate(eager.compile(sequence));
+			}
+		}
+
+		// single stickers are traced back through the log
+		String expected = eager.show();
+		for (int side = 0; side < 6; ++side) {
+			for (int row = 0; row < LAZY_SIZE; ++row) {
+				for (int column = 0; column < LAZY_SIZE; ++column) {
+					int index = (side * LAZY_SIZE + row) * LAZY_SIZE + column;
+					Assertions.assertEquals(expected.charAt(index) - '0', lazy.showSquare(side, row, column));
+				}
+			}
+		}
+		Assertions.assertEquals(expected, lazy.showOptimistic());
+		Assertions.assertEquals(expected, lazy.show());
+		lazy.rotate(3, 1);
+		eager.rotate(3, 1);
+		Assertions.assertEquals(eager.show(), CubeCodec.decode(ByteBuffer.wrap(lazy.showBinary())).toString());
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> lazy.showSquare(6, 0, 0));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> lazy.showSquare(0, LAZY_SIZE, 0));
+	}
+
+	@Test
+	public void shouldKeepLazyLogWhileNobodyReads() throws InterruptedException {
+		Cube lazy = Cube.createLazy(LAZY_SIZE, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		// even after stale reads have been made
+		Assertions.assertEquals(new Cube(LAZY_SIZE, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {}).show(),
+				awaitStale(lazy));
+		for (int i = 0; i < LAZY_ROTATIONS; ++i) {
+			lazy.rotate(i % 6, i % LAZY_SIZE);
+		}
+		Thread.sleep(50);
+		Assertions.assertEquals(LAZY_ROTATIONS, lazy.unappliedMoves());
+
+		lazy.show();
+		Assertions.assertEquals(0, lazy.unappliedMoves());
+	}
+
+	@Test
+	public void shouldMaterialiseFullLazyLog() throws InterruptedException {
+		CubeState lazyState = new CubeState(new ArrayStickerStorage(LAZY_SIZE));
+		AccessManager lazyAccess = new AccessManager(LAZY_SIZE, AdmissionPolicy.fifo());
+		LazyCubeRotator lazy = new LazyCubeRotator(lazyState,
+				new CubeRotator(lazyState, (x, y) -> {}, (x, y) -> {}, lazyAccess),
+				4, (x, y) -> {}, (x, y) -> {}, lazyAccess);
+		CubeState eagerState = new CubeState(new ArrayStickerStorage(LAZY_SIZE));
+		CubeRotator eager = new CubeRotator(eagerState, (x, y) -> {}, (x, y) -> {},
+				new AccessManager(LAZY_SIZE, AdmissionPolicy.fifo()));
+		Random random = new Random(4);
+		for (int i = 0; i < LAZY_ROTATIONS; ++i) {
+			int side = random.nextInt(6);
+			int layer = random.nextInt(LAZY_SIZE);
+			lazy.rotate(side, layer);
+			eager.rotate(side, layer);
+		}
+		Assertions.assertEquals(eagerState.toString(), lazyState.toString());
+	}
+
+	private static final int COALESCED_INSPECTORS = 16;
+
+	@Test
+	public void shouldShareSerialisationAmongInspectorsOfOnePhase() throws Exception {
+		CyclicBarrier allAdmitted = new CyclicBarrier(COALESCED_INSPECTORS);
+		AtomicInteger hooks = new AtomicInteger();
+		cube = new Cube(4, (x, y) -> {}, (x, y) -> {},
+				() -> {
+					hooks.incrementAndGet();
+					try {
+						allAdmitted.await();
+					} catch (Exception e) {
+						Thread.currentThread().interrupt();
+					}
+				},
+				hooks::incrementAndGet);
+		cube.rotate(1, 1);
+
+		List<CompletableFuture<String>> shown = new ArrayList<>();
+		for (int i = 0; i < COALESCED_INSPECTORS; ++i) {
+			shown.add(cube.showAsync());
+		}
+
+		for (CompletableFuture<String> result : shown) {
+			Assertions.assertSame(shown.get(0).join(), result.join());
+		}
+		Assertions.assertEquals(LEFT1_EXPECTED, shown.get(0).join());
+		Assertions.assertEquals(2 * COALESCED_INSPECTORS, hooks.get());
+	}
+
+	private static final int OPTIMISTIC_SIZE = 8;
+	private static final int OPTIMISTIC_OPERATIONS = 300;
+
+	@RepeatedTest(10)
+	public void shouldShowOptimisticallyOnlyConsistentStates() throws InterruptedException {
+		cube = new Cube(OPTIMISTIC_SIZE, (x, y) -> {}, (x, y) -> {}, () -> {}, () -> {});
+		AtomicInteger torn = new AtomicInteger();
+
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; ++i) {
+			Random random = new Random(i);
+			threads.add(new Thread(() -> {
+				try {
+					for (int j = 0; j < OPTIMISTIC_OPERATIONS; ++j) {
+						cube.rotate(random.nextInt(6), random.nextInt(OPTIMISTIC_SIZE));
+					}
+				} catch (InterruptedException ignored) {
+				}
+			}));
+		}
+		for (int i = 0; i < 2; ++i) {
+			threads.add(new Thread(() -> {
+				try {
+					for (int j = 0; j < OPTIMISTIC_OPERATIONS; ++j) {
+						int[] colorCounts = new int[6];
+						for (char c : cube.showOptimistic(2).toCharArray()) {
+							++colorCounts[c - '0'];
+						}
+						for (int count : colorCounts) {
+							if (count != OPTIMISTIC_SIZE * OPTIMISTIC_SIZE) {
+								torn.incrementAndGet();
+							}
+						}
+					}
+				} catch (InterruptedException ignored) {
+				}
+			}));
+		}
+		startThreads(threads);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Assertions.assertEquals(0, torn.get());
+	}
+
 	private static final int PARALLEL_ROTATORS = 420;
 
 	@Test
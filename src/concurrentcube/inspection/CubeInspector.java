@@ -1,6 +1,12 @@
 package concurrentcube.inspection;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.IntSupplier;
+
 import concurrentcube.util.AccessManager;
+import concurrentcube.structure.CubeCodec;
 import concurrentcube.structure.CubeState;
 
 public class CubeInspector {
@@ -18,15 +24,106 @@ public class CubeInspector {
 		this.accessManager = accessManager;
 	}
 
+	/**
+	 * Runs the showing hooks of this call and returns the serialised cube,
+	 * shared with all inspectors admitted in the same phase.
+	 */
 	public String show() throws InterruptedException {
 		String serializedCube;
 		accessManager.onInspectorEntry();
-		beforeShowing.run();
-		serializedCube = cube.toString();
-		afterShowing.run();
-		accessManager.onInspectorExit();
-
+		try {
+			beforeShowing.run();
+			serializedCube = cube.serialize();
+			afterShowing.run();
+		} finally {
+			accessManager.onInspectorExit();
+		}
 		return serializedCube;
 	}
 
+	/**
+	 * Streams the cube to out while admitted, as {@link #show()} would return it,
+	 * without building the string.
+	 */
+	public void show(Appendable out) throws InterruptedException, IOException {
+		inspect(() -> cube.writeTo(out));
+	}
+
+	public void show(ByteBuffer out) throws InterruptedException, IOException {
+		inspect(() -> cube.writeTo(out));
+	}
+
+	public void show(WritableByteChannel out) throws InterruptedException, IOException {
+		inspect(() -> cube.writeTo(out));
+	}
+
+	/**
+	 * Encodes the cube while admitted, see {@link CubeCodec}.
+	 */
+	public byte[] showBinary() throws InterruptedException {
+		byte[] encodedCube;
+		accessManager.onInspectorEntry();
+		try {
+			beforeShowing.run();
+			encodedCube = CubeCodec.encode(cube);
+			afterShowing.run();
+		} finally {
+			accessManager.onInspectorExit();
+		}
+		return encodedCube;
+	}
+
+	/**
+	 * Reads a sticker with square while admitted.
+	 */
+	public int showSquare(IntSupplier square) throws InterruptedException {
+		int color;
+		accessManager.onInspectorEntry();
+		try {
+			beforeShowing.run();
+			color = square.getAsInt();
+			afterShowing.run();
+		} finally {
+			accessManager.onInspectorExit();
+		}
+		return color;
+	}
+
+	private interface Serialisation {
+
+		void run() throws IOException;
+	}
+
+	// Leaves the cube even if writing fails.
+	private void inspect(Serialisation serialisation) throws InterruptedException, IOException {
+		accessManager.onInspectorEntry();
+		try {
+			beforeShowing.run();
+			serialisation.run();
+			afterShowing.run();
+		} finally {
+			accessManager.onInspectorExit();
+		}
+	}
+
+	/**
+	 * Serialises the cube without being admitted to it, so rotators are not stalled,
+	 * and retries if the cube was changed meanwhile.
+	 * After maxAttempts failed attempts it shows the cube like {@link #show()}.
+	 * The showing hooks run only for that fallback.
+	 */
+	public String showOptimistic(int maxAttempts) throws InterruptedException {
+		for (int attempt = 0; attempt < maxAttempts; ++attempt) {
+			long stamp = accessManager.tryOptimisticRead();
+			if (stamp != 0) {
+				String serializedCube = cube.toString();
+				if (accessManager.validate(stamp)) {
+					return serializedCube;
+				}
+			}
+			Thread.onSpinWait();
+		}
+		return show();
+	}
+
 }
@@ -0,0 +1,159 @@
+package concurrentcube.inspection;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import concurrentcube.structure.CubeState;
+import concurrentcube.util.AccessManager;
+
+/**
+ * Publishes immutable snapshots of the cube for stale reads,
+ * which only return the latest one and so never wait and take O(1).
+ *
+ * Nothing is published until the first stale read, which finds no snapshot
+ * and schedules one. From then on, whenever rotators leave the cube after
+ * changing it, a snapshot is scheduled on the executor, so that the leaving
+ * rotator does not pay for it.
+ * It is read optimistically and, if a rotation overlapped it, read again
+ * admitted as an inspector, so the cube cannot keep it from being taken.
+ * Snapshots are taken not sooner than MIN_INTERVAL_NANOS, nor than nine times
+ * the cost of taking the previous one after it, so they take at most a tenth of the time.
+ * Cubes too large to be shown as a string have none.
+ */
+public class SnapshotPublisher implements Runnable {
+
+	private static final long MIN_INTERVAL_NANOS = 1_000_000;
+	private static final int COST_TO_INTERVAL_RATIO = 9;
+
+	private final CubeState cube;
+	private final AccessManager accessManager;
+	private final Executor executor;
+
+	private final boolean fitsInString;
+
+	private volatile Snapshot latest;
+	private volatile boolean enabled;
+	private volatile long nextAllowedNanos;
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	public SnapshotPublisher(CubeState cube, AccessManager accessManager, Executor executor) {
+		this.cube = cube;
+		this.accessManager = accessManager;
+		this.executor = executor;
+		this.fitsInString = 6L * cube.size() * cube.size() <= Integer.MAX_VALUE - 8;
+		this.nextAllowedNanos = System.nanoTime();
+	}
+
+	/**
+	 * Called when rotators leave the cube, schedules a snapshot
+	 * if stale reads have been made and the cube has changed.
+	 */
+	@Override
+	public void run() {
+		if (enabled) {
+			schedule();
+		}
+	}
+
+	private void schedule() {
+		Snapshot snapshot = latest;
+		if (fitsInString && (snapshot == null || accessManager.tryOptimisticRead() != snapshot.stamp)
+				&& scheduled.compareAndSet(false, true)) {
+			long delay = nextAllowedNanos - System.nanoTime();
+			try {
+				if (delay > 0) {
+					CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, executor).execute(this::publish);
+				} else {
+					executor.execute(this::publish);
+				}
+			} catch (RuntimeException e) {
+				scheduled.set(false);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Returns the latest snapshot if it was taken at most maxAgeNanos ago
+	 * or the cube has not changed since. Otherwise schedules a new one
+	 * and returns empty.
+	 */
+	public Optional<String> showStale(long maxAgeNanos) {
+		if (!enabled) {
+			enabled = true;
+		}
+		Snapshot snapshot = latest;
+		if (snapshot != null && (System.nanoTime() - snapshot.takenNanos <= maxAgeNanos
+				|| accessManager.tryOptimisticRead() == snapshot.stamp)) {
+			return Optional.of(snapshot.serializedCube);
+		}
+		schedule();
+		return Optional.empty();
+	}
+
+	private void publish() {
+		try {
+			long start = System.nanoTime();
+			Snapshot snapshot = tryTakeOptimistically();
+			if (snapshot == null) {
+				snapshot = takeAdmitted();
+			}
+			if (snapshot == null) {
+				return;
+			}
+			long end = System.nanoTime();
+			latest = snapshot;
+			nextAllowedNanos = end + Math.max(MIN_INTERVAL_NANOS, COST_TO_INTERVAL_RATIO * (end - start));
+		} finally {
+			scheduled.set(false);
+		}
+		// Changes whose rotators left while this one was scheduled.
+		run();
+	}
+
+	private Snapshot tryTakeOptimistically() {
+		long start = System.nanoTime();
+		long stamp = accessManager.tryOptimisticRead();
+		if (stamp == 0) {
+			return null;
+		}
+		String serializedCube = cube.toString();
+		return accessManager.validate(stamp) ? new Snapshot(serializedCube, stamp, start) : null;
+	}
+
+	private Snapshot takeAdmitted() {
+		try {
+			accessManager.onInspectorEntry();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		try {
+			long start = System.nanoTime();
+			return new Snapshot(cube.toString(), accessManager.tryOptimisticRead(), start);
+		} finally {
+			try {
+				accessManager.onInspectorExit();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static class Snapshot {
+
+		final String serializedCube;
+		final long stamp;
+		final long takenNanos;
+
+		Snapshot(String serializedCube, long stamp, long takenNanos) {
+			this.serializedCube = serializedCube;
+			this.stamp = stamp;
+			this.takenNanos = takenNanos;
+		}
+	}
+
+}
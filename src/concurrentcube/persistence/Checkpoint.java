@@ -0,0 +1,110 @@
+package concurrentcube.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * A cube state encoded with {@link concurrentcube.structure.CubeCodec}
+ * together with the sequence number of the first journal record not applied to it.
+ *
+ * Written to a temporary file, forced and renamed over the previous checkpoint,
+ * so a crash leaves either the old or the new one. Format: the sequence number (long),
+ * CRC32 of the encoded state (long), the encoded state.
+ */
+class Checkpoint {
+
+	private static final String FILE_NAME = "checkpoint";
+	private static final String TEMPORARY_FILE_NAME = "checkpoint.tmp";
+	private static final int HEADER_BYTES = 2 * Long.BYTES;
+
+	final long sequence;
+	final ByteBuffer encodedCube;
+
+	Checkpoint(long sequence, ByteBuffer encodedCube) {
+		this.sequence = sequence;
+		this.encodedCube = encodedCube;
+	}
+
+	/**
+	 * Writes the encoded cube to a channel.
+	 */
+	interface Content {
+
+		void writeTo(WritableByteChannel out) throws IOException;
+	}
+
+	/**
+	 * Writes a checkpoint whose encoded cube is streamed by content,
+	 * computing the checksum as it goes.
+	 */
+	static void write(Path directory, long sequence, Content content) throws IOException {
+		Path temporary = directory.resolve(TEMPORARY_FILE_NAME);
+		try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			CRC32 crc = new CRC32();
+			out.position(HEADER_BYTES);
+			content.writeTo(new WritableByteChannel() {
+
+				@Override
+				public int write(ByteBuffer source) throws IOException {
+					ByteBuffer written = source.duplicate();
+					int count = out.write(source);
+					written.limit(written.position() + count);
+					crc.update(written);
+					return count;
+				}
+
+				@Override
+				public boolean isOpen() {
+					return out.isOpen();
+				}
+
+				@Override
+				public void close() {
+				}
+			});
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putLong(sequence).putLong(crc.getValue()).flip();
+			while (header.hasRemaining()) {
+				out.write(header, header.position());
+			}
+			out.force(false);
+		}
+		Files.move(temporary, directory.resolve(FILE_NAME),
+				StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		MoveJournal.forceDirectory(directory);
+	}
+
+	static Optional<Checkpoint> read(Path directory) throws IOException {
+		Path file = directory.resolve(FILE_NAME);
+		if (!Files.exists(file)) {
+			return Optional.empty();
+		}
+		ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file));
+		if (content.remaining() < HEADER_BYTES) {
+			throw new IOException("Checkpoint " + file + " is truncated.");
+		}
+		long sequence = content.getLong();
+		long checksum = content.getLong();
+		ByteBuffer encodedCube = content.slice();
+		if (checksum(encodedCube.duplicate()) != checksum) {
+			throw new IOException("Checkpoint " + file + " is corrupted.");
+		}
+		return Optional.of(new Checkpoint(sequence, encodedCube));
+	}
+
+	private static long checksum(ByteBuffer data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+
+}
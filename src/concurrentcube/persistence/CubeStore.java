@@ -0,0 +1,182 @@
+package concurrentcube.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import concurrentcube.structure.ArrayStickerStorage;
+import concurrentcube.structure.CubeCodec;
+import concurrentcube.structure.CubeState;
+import concurrentcube.structure.FrozenCube;
+import concurrentcube.structure.MappedStickerStorage;
+import concurrentcube.util.AccessManager;
+
+/**
+ * Keeps a cube in a directory as its last {@link Checkpoint}
+ * followed by the {@link MoveJournal} of the moves applied since.
+ *
+ * A cube in {@link MappedStickerStorage} is also kept in its file. After {@link #sync()}
+ * or closing, reopening it only maps the file and replays the moves after the sync.
+ * A file changed since, e.g. by a crash in the middle of rotations,
+ * is rebuilt from the checkpoint and the journal, which a sync therefore keeps.
+ */
+public class CubeStore implements Closeable {
+
+	private final Path directory;
+	private final CubeState cube;
+	private final MappedStickerStorage mapped;
+	private final AccessManager accessManager;
+	private final MoveJournal journal;
+
+	// The checkpoint being written, if any.
+	private CompletableFuture<Void> checkpointing = CompletableFuture.completedFuture(null);
+
+	private CubeStore(Path directory, CubeState cube, MappedStickerStorage mapped,
+			AccessManager accessManager, MoveJournal journal) {
+		this.directory = directory;
+		this.cube = cube;
+		this.mapped = mapped;
+		this.accessManager = accessManager;
+		this.journal = journal;
+	}
+
+	/**
+	 * Restores the cube kept in the directory, if any, into cube: loads the last checkpoint
+	 * and passes the moves journaled after it to replay, which must apply them to cube.
+	 * Then opens the journal for new moves.
+	 * Must be called before the cube is shared with other threads.
+	 */
+	public static CubeStore open(Path directory, CubeState cube, AccessManager accessManager,
+			MoveJournal.MoveConsumer replay) throws IOException {
+		return open(directory, cube, null, accessManager, replay);
+	}
+
+	/**
+	 * Restores a cube whose stickers are kept in mapped, a file that is used as it is
+	 * if it was synced after the last checkpoint and has not been changed since.
+	 */
+	public static CubeStore open(Path directory, CubeState cube, MappedStickerStorage mapped,
+			AccessManager accessManager, MoveJournal.MoveConsumer replay) throws IOException {
+		Files.createDirectories(directory);
+		long from = 0;
+		Optional<Checkpoint> checkpoint = Checkpoint.read(directory);
+		if (mapped != null && mapped.isClean()
+				&& checkpoint.map(saved -> saved.sequence <= mapped.cleanSequence()).orElse(true)) {
+			from = mapped.cleanSequence();
+		} else {
+			if (mapped != null) {
+				mapped.reset();
+			}
+			if (checkpoint.isPresent()) {
+				from = checkpoint.get().sequence;
+				cube.copyFrom(CubeCodec.decode(checkpoint.get().encodedCube.duplicate(),
+						new ArrayStickerStorage(cube.size())));
+			}
+		}
+		long next = MoveJournal.replay(directory, from, replay);
+		return new CubeStore(directory, cube, mapped, accessManager, MoveJournal.open(directory, next));
+	}
+
+	public MoveJournal journal() {
+		return journal;
+	}
+
+	/**
+	 * Writes a checkpoint like {@link #checkpointAsync}, on the calling thread,
+	 * and returns once it is on disk.
+	 */
+	public void checkpoint() throws InterruptedException, IOException {
+		try {
+			checkpointAsync(Runnable::run).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of the cube on the executor and then discards the journal before it.
+	 * Rotators are kept out only while the journal is started anew and the cube is frozen,
+	 * see {@link CubeState#freeze()}; the frozen state is then written while they go on.
+	 * A checkpoint still being written is waited for first.
+	 */
+	public synchronized CompletableFuture<Void> checkpointAsync(Executor executor)
+			throws InterruptedException, IOException {
+		awaitCheckpoint();
+		long sequence;
+		FrozenCube frozen;
+		accessManager.onInspectorEntry();
+		try {
+			sequence = journal.roll();
+			frozen = cube.freeze();
+		} finally {
+			accessManager.onInspectorExit();
+		}
+		checkpointing = CompletableFuture.runAsync(() -> {
+			try {
+				Checkpoint.write(directory, sequence, frozen::writeTo);
+				journal.discardBefore(sequence);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				frozen.release();
+			}
+		}, executor);
+		return checkpointing;
+	}
+
+	// A failed checkpoint is reported by its own future.
+	private void awaitCheckpoint() {
+		try {
+			checkpointing.join();
+		} catch (CompletionException | CancellationException e) {
+			// Nothing to wait for anymore.
+		}
+	}
+
+	/**
+	 * Writes a mapped cube back to its file and marks the file clean.
+	 * Most changed pages are written while rotators go on,
+	 * only those changed meanwhile are written with rotators kept out of the cube.
+	 */
+	public synchronized void sync() throws InterruptedException {
+		if (mapped == null) {
+			throw new IllegalStateException("Cube is not mapped from a file.");
+		}
+		mapped.force();
+		accessManager.onInspectorEntry();
+		try {
+			mapped.force();
+			mapped.markClean(journal.nextSequence());
+		} finally {
+			accessManager.onInspectorExit();
+		}
+	}
+
+	/**
+	 * Waits for the checkpoint being written, syncs a mapped cube and closes the journal. If interrupted,
+	 * the file is left to be rebuilt from the journal when reopened.
+	 */
+	@Override
+	public void close() throws IOException {
+		awaitCheckpoint();
+		if (mapped != null) {
+			try {
+				sync();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		journal.close();
+	}
+
+}
@@ -0,0 +1,377 @@
+package concurrentcube.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-ahead journal of the moves applied to a cube.
+ *
+ * Rotators append their moves to a buffer in memory, which a flusher thread
+ * writes to the current segment file and forces to disk. Moves appended
+ * while the flusher is busy are written and forced together by its next round,
+ * so concurrent rotators share one fsync and no rotator ever forces by itself.
+ *
+ * Every record is 8 bytes: the layer (int), the side (short) and a check (short)
+ * that tells a written record from a torn or zeroed tail.
+ * The journal is split into segments, each named after the sequence number
+ * of its first record; a new segment is started by {@link #roll()}.
+ */
+public class MoveJournal implements Closeable {
+
+	static final int RECORD_BYTES = 8;
+
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final int INITIAL_BUFFER_BYTES = 64 * RECORD_BYTES;
+
+	/**
+	 * Receives the moves read from a journal.
+	 */
+	public interface MoveConsumer {
+
+		void accept(int side, int layer);
+	}
+
+	private final Path directory;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition flushNeeded = lock.newCondition();
+	private final Condition flushed = lock.newCondition();
+	private final Thread flusher;
+
+	// Guarded by lock.
+	private FileChannel channel;
+	private ByteBuffer pending = ByteBuffer.allocateDirect(INITIAL_BUFFER_BYTES);
+	private ByteBuffer spare = ByteBuffer.allocateDirect(INITIAL_BUFFER_BYTES);
+	// Sequence number of the next record appended.
+	private long appended;
+	// Records before this one are on disk.
+	private long durable;
+	private boolean flusherWaiting;
+	private boolean closed;
+	private IOException failure;
+
+	private MoveJournal(Path directory, long nextSequence) throws IOException {
+		this.directory = directory;
+		this.appended = nextSequence;
+		this.durable = nextSequence;
+		this.channel = openSegment(directory, nextSequence);
+		this.flusher = new Thread(this::flush, "cube-journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Opens the journal for appending records from nextSequence on,
+	 * in a new segment. Records already in the directory are kept.
+	 */
+	public static MoveJournal open(Path directory, long nextSequence) throws IOException {
+		return new MoveJournal(directory, nextSequence);
+	}
+
+	/**
+	 * Buffers the record of a move and returns its sequence number.
+	 * Moves that do not commute must be appended in the order they are applied.
+	 */
+	public long append(int side, int layer) {
+		lock.lock();
+		try {
+			checkFailure();
+			if (closed) {
+				throw new IllegalStateException("Journal is closed.");
+			}
+			if (pending.remaining() < RECORD_BYTES) {
+				pending = grow(pending);
+			}
+			pending.putInt(layer).putShort((short) side).putShort(check(side, layer));
+			if (flusherWaiting) {
+				flusherWaiting = false;
+				flushNeeded.signal();
+			}
+			return appended++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Buffers the records of moves, each given as {side, layer}, all or none of them,
+	 * and returns the sequence number of the last one.
+	 */
+	public long append(int[][] moves) {
+		lock.lock();
+		try {
+			checkFailure();
+			if (closed) {
+				throw new IllegalStateException("Journal is closed.");
+			}
+			while (pending.remaining() < moves.length * RECORD_BYTES) {
+				pending = grow(pending);
+			}
+			for (int[] move : moves) {
+				pending.putInt(move[1]).putShort((short) move[0]).putShort(check(move[0], move[1]));
+			}
+			if (flusherWaiting) {
+				flusherWaiting = false;
+				flushNeeded.signal();
+			}
+			appended += moves.length;
+			return appended - 1;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sequence number of the next record to be appended.
+	 */
+	public long nextSequence() {
+		lock.lock();
+		try {
+			return appended;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the record with the given sequence number, and all before it,
+	 * are on disk. Waiting is not interrupted, the interrupt status is kept.
+	 *
+	 * @throws UncheckedIOException if the journal could not be written
+	 */
+	public void awaitDurable(long sequence) {
+		lock.lock();
+		try {
+			while (durable <= sequence) {
+				checkFailure();
+				flushed.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until everything appended so far is on disk and starts a new segment.
+	 * Must be called while no moves are appended, e.g. with rotators kept out of the cube.
+	 * Returns the sequence number the new segment starts at.
+	 */
+	public long roll() throws IOException {
+		lock.lock();
+		try {
+			while (durable < appended) {
+				checkFailure();
+				flushed.awaitUninterruptibly();
+			}
+			channel.close();
+			channel = openSegment(directory, appended);
+			return appended;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Deletes the segments holding only records before the given sequence number,
+	 * which must be where some segment starts.
+	 */
+	public void discardBefore(long sequence) throws IOException {
+		for (long start : segments(directory)) {
+			if (start < sequence) {
+				Files.deleteIfExists(segmentPath(directory, start));
+			}
+		}
+	}
+
+	/**
+	 * Writes what is left, stops the flusher and closes the segment.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			flushNeeded.signal();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		lock.lock();
+		try {
+			channel.close();
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Passes the moves recorded in the directory from the given sequence number on
+	 * to the consumer, in order, stopping at the first torn record.
+	 * Returns the sequence number following the last move read.
+	 */
+	public static long replay(Path directory, long from, MoveConsumer consumer) throws IOException {
+		List<Long> starts = segments(directory);
+		long next = from;
+		for (int i = 0; i < starts.size(); ++i) {
+			long start = starts.get(i);
+			long end = i + 1 < starts.size() ? starts.get(i + 1) : Long.MAX_VALUE;
+			if (end <= from) {
+				continue;
+			}
+			if (start > next) {
+				throw new IOException("Journal records " + next + " to " + start + " are missing.");
+			}
+			next = replaySegment(segmentPath(directory, start), start, Math.max(start, next), end, consumer);
+		}
+		return next;
+	}
+
+	private static long replaySegment(Path segment, long start, long from, long end, MoveConsumer consumer)
+			throws IOException {
+		long sequence = start;
+		try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+			while (sequence < end && in.read(buffer) > 0) {
+				buffer.flip();
+				while (sequence < end && buffer.remaining() >= RECORD_BYTES) {
+					int layer = buffer.getInt();
+					int side = buffer.getShort();
+					if (buffer.getShort() != check(side, layer)) {
+						return sequence;
+					}
+					if (sequence >= from) {
+						consumer.accept(side, layer);
+					}
+					++sequence;
+				}
+				buffer.compact();
+			}
+		}
+		return sequence;
+	}
+
+	private void flush() {
+		FileChannel target;
+		ByteBuffer batch;
+		long batchEnd;
+		while (true) {
+			lock.lock();
+			try {
+				while (pending.position() == 0 && !closed) {
+					flusherWaiting = true;
+					flushNeeded.awaitUninterruptibly();
+				}
+				if (pending.position() == 0) {
+					return;
+				}
+				target = channel;
+				batch = pending;
+				batchEnd = appended;
+				pending = spare;
+				spare = null;
+			} finally {
+				lock.unlock();
+			}
+
+			IOException error = null;
+			try {
+				batch.flip();
+				while (batch.hasRemaining()) {
+					target.write(batch);
+				}
+				target.force(false);
+			} catch (IOException e) {
+				error = e;
+			}
+
+			lock.lock();
+			try {
+				if (error != null) {
+					failure = error;
+					closed = true;
+				} else {
+					durable = batchEnd;
+				}
+				batch.clear();
+				spare = batch;
+				flushed.signalAll();
+				if (error != null) {
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new UncheckedIOException("Journal could not be written.", failure);
+		}
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer) {
+		ByteBuffer grown = ByteBuffer.allocateDirect(2 * buffer.capacity());
+		buffer.flip();
+		grown.put(buffer);
+		return grown;
+	}
+
+	// Never 0, so that a zeroed record is not mistaken for a move.
+	private static short check(int side, int layer) {
+		return (short) ~(layer ^ (layer >>> 16) ^ (side << 13));
+	}
+
+	private static FileChannel openSegment(Path directory, long start) throws IOException {
+		FileChannel segment = FileChannel.open(segmentPath(directory, start), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		forceDirectory(directory);
+		return segment;
+	}
+
+	// Makes a created or renamed file's directory entry durable.
+	static void forceDirectory(Path directory) throws IOException {
+		try (FileChannel entries = FileChannel.open(directory, StandardOpenOption.READ)) {
+			entries.force(true);
+		} catch (IOException e) {
+			// Not supported on every platform, e.g. Windows.
+		}
+	}
+
+	private static Path segmentPath(Path directory, long start) {
+		return directory.resolve(String.format("%s%019d", SEGMENT_PREFIX, start));
+	}
+
+	private static List<Long> segments(Path directory) throws IOException {
+		List<Long> starts = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*")) {
+			for (Path file : files) {
+				starts.add(Long.parseLong(file.getFileName().toString().substring(SEGMENT_PREFIX.length())));
+			}
+		}
+		Collections.sort(starts);
+		return starts;
+	}
+
+}
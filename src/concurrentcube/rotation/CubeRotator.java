@@ -7,36 +7,384 @@ import static concurrentcube.structure.SideType.LEFT;
 import static concurrentcube.structure.SideType.RIGHT;
 import static concurrentcube.structure.SideType.TOP;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.BiConsumer;
 
+import concurrentcube.persistence.MoveJournal;
 import concurrentcube.util.AccessManager;
 import concurrentcube.structure.CubeState;
 import concurrentcube.structure.SideType;
 
 public class CubeRotator {
 
+	private static final long NOT_JOURNALED = -1;
+
 	private final CubeState state;
 	private final BiConsumer<Integer, Integer> beforeRotation;
 	private final BiConsumer<Integer, Integer> afterRotation;
 	private final AccessManager accessManager;
 
+	// Layer numbers boxed once, so that passing them
+	// to the rotation hooks does not allocate.
+	private final Integer[] layers;
+
+	// Rotations waiting to be combined, by layer index, created on first use.
+	private final AtomicReferenceArray<Queue<CombinedRotation>> combiningQueues;
+
+	// Records every move while its layer is held, null if moves are not journaled.
+	private MoveJournal journal;
+
 	public CubeRotator(CubeState state, BiConsumer<Integer, Integer> beforeRotation,
 			BiConsumer<Integer, Integer> afterRotation, AccessManager accessManager) {
 		this.state = state;
 		this.beforeRotation = beforeRotation;
 		this.afterRotation = afterRotation;
 		this.accessManager = accessManager;
+		this.layers = new Integer[state.size()];
+		for (int i = 0; i < layers.length; ++i) {
+			layers[i] = i;
+		}
+		this.combiningQueues = new AtomicReferenceArray<>(state.size());
+	}
+
+	/**
+	 * Sets the journal every move is recorded in. A move is recorded
+	 * before it is applied, so a journal that is closed or failed rejects it
+	 * with the cube unchanged. A rotation returns once its record is on disk,
+	 * waiting for that after leaving the cube.
+	 * Must be set before the rotator is shared with other threads.
+	 */
+	public void setJournal(MoveJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Applies a move without admission, hooks or journal,
+	 * e.g. to replay a journal into a cube no other thread uses yet.
+	 */
+	public void replay(int side, int layer) {
+		rotateCube(side, layer);
 	}
 
 	public void rotate(int side, int layer) throws InterruptedException {
 		accessManager.onRotatorEntry(side, layer);
-		beforeRotation.accept(side, layer);
-		rotateCube(side, layer);
-		afterRotation.accept(side, layer);
-		accessManager.onAfterRotation(side, layer);
+		long sequence;
+		try {
+			beforeRotation.accept(side, layers[layer]);
+			sequence = journal == null ? NOT_JOURNALED : journal.append(side, layer);
+			rotateCube(side, layer);
+			afterRotation.accept(side, layers[layer]);
+		} finally {
+			accessManager.onAfterRotation(side, layer);
+		}
+		awaitJournal(sequence);
+	}
+
+	/**
+	 * Rotates like {@link #rotate(int, int)}, but rotations of one layer
+	 * waiting for each other are combined: the thread that gets the layer
+	 * applies all rotations queued on it as their net number of quarter turns,
+	 * which takes at most two moves. It also runs the hooks of every combined
+	 * rotation, all before hooks in order, then the moves, then all after hooks.
+	 */
+	public void rotateCombining(int side, int layer) throws InterruptedException {
+		accessManager.onCombiningEntry(side);
+		Queue<CombinedRotation> queue = getCombiningQueue(accessManager.getLayerIndex(side, layer));
+		CombinedRotation rotation = new CombinedRotation(side, layer);
+		queue.add(rotation);
+		try {
+			accessManager.lockLayerInterruptibly(side, layer);
+		} catch (InterruptedException e) {
+			if (queue.remove(rotation)) {
+				accessManager.onCombiningExit();
+				throw e;
+			}
+			// Another thread is already applying it.
+			Thread.currentThread().interrupt();
+			accessManager.lockLayer(side, layer);
+		}
+		try {
+			try {
+				if (!rotation.applied) {
+					combine(queue, side, layer);
+				}
+			} finally {
+				accessManager.unlockLayer(side, layer);
+			}
+		} finally {
+			accessManager.onCombiningExit();
+		}
+		if (rotation.failure != null) {
+			throw rotation.failure;
+		}
+		awaitJournal(rotation.sequence);
+	}
+
+	// Waits until the journal record with the given sequence number, and all before it, are on disk.
+	private void awaitJournal(long sequence) {
+		if (sequence != NOT_JOURNALED) {
+			journal.awaitDurable(sequence);
+		}
+	}
+
+	private Queue<CombinedRotation> getCombiningQueue(int layerIndex) {
+		Queue<CombinedRotation> queue = combiningQueues.get(layerIndex);
+		if (queue == null) {
+			combiningQueues.compareAndSet(layerIndex, null, new ConcurrentLinkedQueue<>());
+			queue = combiningQueues.get(layerIndex);
+		}
+		return queue;
+	}
+
+	// Called with the layer locked, the queue holds at least one rotation.
+	private void combine(Queue<CombinedRotation> queue, int side, int layer) {
+		// Quarter turns counted as seen from the side of the axis
+		// whose layer number equals the layer index.
+		int baseLayer = accessManager.getLayerIndex(side, layer);
+		int baseSide = baseLayer == layer ? side : SideType.getOpposite(side);
+
+		List<CombinedRotation> combined = new ArrayList<>();
+		int quarterTurns = 0;
+		for (CombinedRotation next = queue.poll(); next != null; next = queue.poll()) {
+			combined.add(next);
+			quarterTurns += next.side == baseSide ? 1 : 3;
+		}
+
+		try {
+			for (CombinedRotation rotation : combined) {
+				beforeRotation.accept(rotation.side, layers[rotation.layer]);
+			}
+			if (journal != null) {
+				int[][] moves = new int[combined.size()][];
+				for (int i = 0; i < moves.length; ++i) {
+					moves[i] = new int[] {combined.get(i).side, combined.get(i).layer};
+				}
+				long last = journal.append(moves);
+				for (int i = 0; i < moves.length; ++i) {
+					combined.get(i).sequence = last - moves.length + 1 + i;
+				}
+			}
+			switch (quarterTurns & 3) {
+				case 1:
+					rotateCube(baseSide, baseLayer);
+					break;
+				case 2:
+					rotateCube(baseSide, baseLayer);
+					rotateCube(baseSide, baseLayer);
+					break;
+				case 3:
+					rotateCube(SideType.getOpposite(baseSide), state.size() - 1 - baseLayer);
+					break;
+			}
+		} catch (RuntimeException e) {
+			// The other combined rotations fail with it, as none was applied;
+			// their threads would otherwise find the queue empty and return.
+			for (CombinedRotation rotation : combined) {
+				rotation.failure = e;
+				rotation.applied = true;
+			}
+			throw e;
+		}
+		for (CombinedRotation rotation : combined) {
+			rotation.applied = true;
+		}
+		for (CombinedRotation rotation : combined) {
+			afterRotation.accept(rotation.side, layers[rotation.layer]);
+		}
+	}
+
+	// Written and read only with its layer locked.
+	private static class CombinedRotation {
+
+		final int side;
+		final int layer;
+		boolean applied;
+		long sequence = NOT_JOURNALED;
+		RuntimeException failure;
+
+		CombinedRotation(int side, int layer) {
+			this.side = side;
+			this.layer = layer;
+		}
+	}
+
+	/**
+	 * Applies the whole sequence with a single exclusive access to the cube.
+	 * The rotation hooks are run for every move of the sequence,
+	 * all before hooks in order, then the moves, then all after hooks.
+	 */
+	public void rotate(MoveSequence sequence) throws InterruptedException {
+		if (sequence.size() != state.size()) {
+			throw new IllegalArgumentException("Sequence compiled for size " + sequence.size()
+					+ " applied to cube of size " + state.size() + ".");
+		}
+		accessManager.onExclusiveEntry();
+		long last = NOT_JOURNALED;
+		try {
+			for (int i = 0; i < sequence.moveCount(); ++i) {
+				beforeRotation.accept(sequence.side(i), layers[sequence.layer(i)]);
+			}
+			if (journal != null && sequence.moveCount() > 0) {
+				int[][] moves = new int[sequence.moveCount()][];
+				for (int i = 0; i < moves.length; ++i) {
+					moves[i] = new int[] {sequence.side(i), sequence.layer(i)};
+				}
+				last = journal.append(moves);
+			}
+			applySequence(sequence);
+			for (int i = 0; i < sequence.moveCount(); ++i) {
+				afterRotation.accept(sequence.side(i), layers[sequence.layer(i)]);
+			}
+		} finally {
+			accessManager.onExclusiveExit();
+		}
+		awaitJournal(last);
+	}
+
+	/**
+	 * Applies moves, each given as {side, layer}, as if one by one in order.
+	 * Every maximal run of consecutive moves of one {@link RotatorType}
+	 * is admitted to the cube once; its moves are split by layer
+	 * and different layers are rotated in parallel on the executor,
+	 * in at most one task per available processor.
+	 * Moves of one layer keep their order, and each move runs its hooks
+	 * on the thread that rotates it.
+	 */
+	public void rotateBatch(int[][] moves, Executor executor) throws InterruptedException {
+		for (int[] move : moves) {
+			if (move.length != 2 || move[0] < 0 || move[0] > 5 || move[1] < 0 || move[1] >= state.size()) {
+				throw new IllegalArgumentException("Invalid move " + Arrays.toString(move) + ".");
+			}
+		}
+
+		long last = NOT_JOURNALED;
+		int start = 0;
+		while (start < moves.length) {
+			RotatorType rotatorType = RotatorType.get(moves[start][0]);
+			int end = start + 1;
+			while (end < moves.length && RotatorType.get(moves[end][0]) == rotatorType) {
+				++end;
+			}
+			last = Math.max(last, rotateGroup(moves, start, end, rotatorType, executor));
+			start = end;
+		}
+		awaitJournal(last);
+	}
+
+	// Returns the sequence number of the last move the group journaled.
+	private long rotateGroup(int[][] moves, int start, int end, RotatorType rotatorType, Executor executor)
+			throws InterruptedException {
+		Map<Integer, List<int[]>> movesByLayer = new LinkedHashMap<>();
+		for (int i = start; i < end; ++i) {
+			int layerIndex = accessManager.getLayerIndex(moves[i][0], moves[i][1]);
+			movesByLayer.computeIfAbsent(layerIndex, k -> new ArrayList<>()).add(moves[i]);
+		}
+
+		// Layers are dealt into at most one chunk per processor,
+		// the calling thread rotates the first chunk itself.
+		int chunkCount = Math.min(movesByLayer.size(), Runtime.getRuntime().availableProcessors());
+		List<List<List<int[]>>> chunks = new ArrayList<>();
+		for (int i = 0; i < chunkCount; ++i) {
+			chunks.add(new ArrayList<>());
+		}
+		int next = 0;
+		for (List<int[]> layerMoves : movesByLayer.values()) {
+			chunks.get(next).add(layerMoves);
+			next = (next + 1) % chunkCount;
+		}
+
+		accessManager.onBatchEntry(rotatorType);
+		List<CompletableFuture<Long>> tasks = new ArrayList<>();
+		long last = NOT_JOURNALED;
+		Throwable failure = null;
+		try {
+			for (int i = 1; i < chunkCount; ++i) {
+				List<List<int[]>> chunk = chunks.get(i);
+				tasks.add(CompletableFuture.supplyAsync(() -> rotateLayers(chunk), executor));
+			}
+			last = rotateLayers(chunks.get(0));
+		} catch (RuntimeException | Error e) {
+			failure = e;
+		}
+		// The group is left only once no task rotates any more, even if some failed.
+		for (var task : tasks) {
+			try {
+				last = Math.max(last, task.join());
+			} catch (CompletionException | CancellationException e) {
+				Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+				if (failure == null) {
+					failure = cause;
+				} else if (failure != cause) {
+					failure.addSuppressed(cause);
+				}
+			}
+		}
+		accessManager.onBatchExit();
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if (failure != null) {
+			throw new CompletionException(failure);
+		}
+		return last;
+	}
+
+	// Returns the sequence number of the last move it journaled.
+	private long rotateLayers(List<List<int[]>> movesByLayer) {
+		long last = NOT_JOURNALED;
+		for (List<int[]> moves : movesByLayer) {
+			int side = moves.get(0)[0];
+			int layer = moves.get(0)[1];
+			accessManager.lockLayer(side, layer);
+			try {
+				for (int[] move : moves) {
+					beforeRotation.accept(move[0], layers[move[1]]);
+					if (journal != null) {
+						last = journal.append(move[0], move[1]);
+					}
+					rotateCube(move[0], move[1]);
+					afterRotation.accept(move[0], layers[move[1]]);
+				}
+			} finally {
+				accessManager.unlockLayer(side, layer);
+			}
+		}
+		return last;
+	}
+
+	protected void applySequence(MoveSequence sequence) {
+		state.permute(sequence.cycles());
+	}
+
+	/**
+	 * Reads one sticker, to be called with the cube kept from changing.
+	 */
+	public int getSquare(int side, int row, int column) {
+		checkSquare(side, row, column);
+		return state.getSquare(SideType.from(side), row, column);
+	}
+
+	void checkSquare(int side, int row, int column) {
+		if (side < 0 || side > 5 || row < 0 || row >= state.size() || column < 0 || column >= state.size()) {
+			throw new IllegalArgumentException("Invalid square (" + side + ", " + row + ", " + column + ").");
+		}
 	}
 
-	private void rotateCube(int side, int layer) {
+	protected void rotateCube(int side, int layer) {
 		SideType sideType = SideType.from(side);
 		switch (sideType) {
 			case TOP:
@@ -66,118 +414,86 @@ public class CubeRotator {
 		}
 	}
 
-	private void rotateFromFront(int layer) {
-		int size = state.size();
-		int[] topRow = state.getRow(TOP, size - 1 - layer);
-		int[] leftColumn = state.getColumn(LEFT, size - 1- layer);
-		int[] bottomRow = state.getRow(BOTTOM, layer);
-		int[] rightColumn = state.getColumn(RIGHT, layer);
+	// Each layer rotation moves its four strips of stickers
+	// as a 4-cycle, one sticker at a time, without temporary arrays.
 
-		state.setRow(TOP, reverse(leftColumn), size - 1 - layer);
-		state.setColumn(LEFT, bottomRow, size - 1- layer);
-		state.setRow(BOTTOM, reverse(rightColumn), layer);
-		state.setColumn(RIGHT, topRow, layer);
+	private void rotateFromFront(int layer) {
+		int last = state.size() - 1;
+		for (int i = 0; i <= last; ++i) {
+			int top = state.getSquare(TOP, last - layer, i);
+			state.setSquare(TOP, last - layer, i, state.getSquare(LEFT, last - i, last - layer));
+			state.setSquare(LEFT, last - i, last - layer, state.getSquare(BOTTOM, layer, last - i));
+			state.setSquare(BOTTOM, layer, last - i, state.getSquare(RIGHT, i, layer));
+			state.setSquare(RIGHT, i, layer, top);
+		}
 	}
 
 	private void rotateFromBack(int layer) {
-		int size = state.size();
-		int[] topRow = state.getRow(TOP, layer);
-		int[] rightColumn = state.getColumn(RIGHT, size - 1 - layer);
-		int[] bottomRow = state.getRow(BOTTOM, size - 1 - layer);
-		int[] leftColumn = state.getColumn(LEFT, layer);
-
-		state.setRow(TOP, rightColumn, layer);
-		state.setColumn(LEFT, reverse(topRow), layer);
-		state.setRow(BOTTOM, leftColumn, size - 1 - layer);
-		state.setColumn(RIGHT, reverse(bottomRow), size - 1 - layer);
+		int last = state.size() - 1;
+		for (int i = 0; i <= last; ++i) {
+			int top = state.getSquare(TOP, layer, i);
+			state.setSquare(TOP, layer, i, state.getSquare(RIGHT, i, last - layer));
+			state.setSquare(RIGHT, i, last - layer, state.getSquare(BOTTOM, last - layer, last - i));
+			state.setSquare(BOTTOM, last - layer, last - i, state.getSquare(LEFT, last - i, layer));
+			state.setSquare(LEFT, last - i, layer, top);
+		}
 	}
 
 	private void rotateFromTop(int layer) {
-		int size = state.size();
-		int[] backRow = state.getRow(BACK, layer);
-		int[] rightRow = state.getRow(RIGHT, layer);
-		int[] frontRow = state.getRow(FRONT, layer);
-		int[] leftRow = state.getRow(LEFT, layer);
-
-		state.setRow(BACK, leftRow, layer);
-		state.setRow(RIGHT, backRow, layer);
-		state.setRow(FRONT, rightRow, layer);
-		state.setRow(LEFT, frontRow, layer);
+		int last = state.size() - 1;
+		for (int i = 0; i <= last; ++i) {
+			int back = state.getSquare(BACK, layer, i);
+			state.setSquare(BACK, layer, i, state.getSquare(LEFT, layer, i));
+			state.setSquare(LEFT, layer, i, state.getSquare(FRONT, layer, i));
+			state.setSquare(FRONT, layer, i, state.getSquare(RIGHT, layer, i));
+			state.setSquare(RIGHT, layer, i, back);
+		}
 	}
 
 	private void rotateFromBottom(int layer) {
-		int size = state.size();
-		int[] frontRow = state.getRow(FRONT, size - 1 - layer);
-		int[] rightRow = state.getRow(RIGHT, size - 1 - layer);
-		int[] backRow = state.getRow(BACK, size - 1 - layer);
-		int[] leftRow = state.getRow(LEFT, size - 1 - layer);
-
-		state.setRow(FRONT, leftRow, size - 1 - layer);
-		state.setRow(RIGHT, frontRow, size - 1 - layer);
-		state.setRow(BACK, rightRow, size - 1 - layer);
-		state.setRow(LEFT, backRow, size - 1 - layer);
+		int last = state.size() - 1;
+		int row = last - layer;
+		for (int i = 0; i <= last; ++i) {
+			int front = state.getSquare(FRONT, row, i);
+			state.setSquare(FRONT, row, i, state.getSquare(LEFT, row, i));
+			state.setSquare(LEFT, row, i, state.getSquare(BACK, row, i));
+			state.setSquare(BACK, row, i, state.getSquare(RIGHT, row, i));
+			state.setSquare(RIGHT, row, i, front);
+		}
 	}
 
 	private void rotateFromLeft(int layer) {
-		int size = state.size();
-		int[] topColumn = state.getColumn(TOP, layer);
-		int[] frontColumn = state.getColumn(FRONT, layer);
-		int[] bottomColumn = state.getColumn(BOTTOM, layer);
-		int[] backColumn = state.getColumn(BACK, size - 1 - layer);
-
-		state.setColumn(TOP, reverse(backColumn), layer);
-		state.setColumn(FRONT, topColumn, layer);
-		state.setColumn(BOTTOM, frontColumn, layer);
-		state.setColumn(BACK, reverse(bottomColumn), size - 1 - layer);
+		int last = state.size() - 1;
+		for (int i = 0; i <= last; ++i) {
+			int top = state.getSquare(TOP, i, layer);
+			state.setSquare(TOP, i, layer, state.getSquare(BACK, last - i, last - layer));
+			state.setSquare(BACK, last - i, last - layer, state.getSquare(BOTTOM, i, layer));
+			state.setSquare(BOTTOM, i, layer, state.getSquare(FRONT, i, layer));
+			state.setSquare(FRONT, i, layer, top);
+		}
 	}
 
 	private void rotateFromRight(int layer) {
-		int size = state.size();
-		int[] topColumn = state.getColumn(TOP, size - 1 - layer);
-		int[] backColumn = state.getColumn(BACK, layer);
-		int[] bottomColumn = state.getColumn(BOTTOM, size - 1 - layer);
-		int[] frontColumn = state.getColumn(FRONT, size - 1 - layer);
-
-		state.setColumn(TOP, frontColumn, size - 1 - layer);
-		state.setColumn(BACK, reverse(topColumn), layer);
-		state.setColumn(BOTTOM, reverse(backColumn), size - 1- layer);
-		state.setColumn(FRONT, bottomColumn, size - 1 - layer);
-	}
-
-	private void rotateSideClockwise(int side) {
-		int size = state.size();
-		SideType sideType = SideType.from(side);
-
-		int[][] rows = new int[size][size];
-		for (int i = 0; i < size; ++i) {
-			rows[i] = state.getRow(sideType, i);
-		}
-
-		for (int i = 0; i < size; ++i) {
-			state.setColumn(sideType, rows[i], size - 1 - i);
+		int last = state.size() - 1;
+		int column = last - layer;
+		for (int i = 0; i <= last; ++i) {
+			int top = state.getSquare(TOP, i, column);
+			state.setSquare(TOP, i, column, state.getSquare(FRONT, i, column));
+			state.setSquare(FRONT, i, column, state.getSquare(BOTTOM, i, column));
+			state.setSquare(BOTTOM, i, column, state.getSquare(BACK, last - i, layer));
+			state.setSquare(BACK, last - i, layer, top);
 		}
 	}
 
-	private void rotateSideCounterClockwise(int side) {
-		int size = state.size();
-		SideType sideType = SideType.from(side);
+	// Face turns only retag the side's orientation,
+	// its stickers stay where they are.
 
-		int[][] columns = new int[size][size];
-		for (int i = 0; i < size; ++i) {
-			columns[i] = state.getColumn(sideType, i);
-		}
-
-		for (int i = 0; i < size; ++i) {
-			state.setRow(sideType, columns[i], size - 1 - i);
-		}
+	private void rotateSideClockwise(int side) {
+		state.rotateSideClockwise(SideType.from(side));
 	}
 
-	private int[] reverse(int[] arr) {
-		int[] reversed = new int[arr.length];
-		for (int i = 0; i < arr.length; ++i) {
-			reversed[i] = arr[arr.length - 1 - i];
-		}
-		return reversed;
+	private void rotateSideCounterClockwise(int side) {
+		state.rotateSideCounterClockwise(SideType.from(side));
 	}
 
 }
@@ -0,0 +1,260 @@
+package concurrentcube.rotation;
+
+import static concurrentcube.structure.SideType.BACK;
+import static concurrentcube.structure.SideType.BOTTOM;
+import static concurrentcube.structure.SideType.FRONT;
+import static concurrentcube.structure.SideType.LEFT;
+import static concurrentcube.structure.SideType.RIGHT;
+import static concurrentcube.structure.SideType.TOP;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import concurrentcube.structure.CubeState;
+import concurrentcube.structure.SideType;
+import concurrentcube.util.AccessManager;
+
+/**
+ * Rotator that only records moves in a log, so that a rotation takes O(1)
+ * however large the cube is. The stickers are brought up to date
+ * by {@link #materialize()}, which the cube state runs before it is read
+ * as a whole, and which rotators run whenever the log reaches its capacity.
+ *
+ * Materialising applies every run of moves of one axis as the net number
+ * of quarter turns of each of its layers, with the given eager rotator.
+ * A single sticker is read without materialising by tracing it back
+ * through the log to where it was before the logged moves.
+ */
+public class LazyCubeRotator extends CubeRotator {
+
+	public static final int DEFAULT_LOG_CAPACITY = 1 << 16;
+
+	private final CubeState state;
+	private final CubeRotator eager;
+	private final AccessManager accessManager;
+	private final int size;
+	private final int logCapacity;
+
+	// Moves as side * size + layer, in the order they were made. Guarded by this.
+	private int[] log = new int[16];
+	private int logLength;
+
+	public LazyCubeRotator(CubeState state, CubeRotator eager, int logCapacity,
+			BiConsumer<Integer, Integer> beforeRotation, BiConsumer<Integer, Integer> afterRotation,
+			AccessManager accessManager) {
+		super(state, beforeRotation, afterRotation, accessManager);
+		this.state = state;
+		this.eager = eager;
+		this.accessManager = accessManager;
+		this.size = state.size();
+		this.logCapacity = logCapacity;
+		state.setMaterializer(this::materialize);
+	}
+
+	@Override
+	protected void rotateCube(int side, int layer) {
+		if (append(side, layer) >= logCapacity) {
+			materialize();
+		}
+	}
+
+	@Override
+	protected void applySequence(MoveSequence sequence) {
+		for (int i = 0; i < sequence.moveCount(); ++i) {
+			append(sequence.side(i), sequence.layer(i));
+		}
+		if (logLength() >= logCapacity) {
+			materialize();
+		}
+	}
+
+	/**
+	 * Applies the logged moves to the stickers and empties the log.
+	 * Marks the cube as being written meanwhile, so that optimistic
+	 * readers it overlaps retry.
+	 */
+	public synchronized void materialize() {
+		if (logLength == 0) {
+			return;
+		}
+		accessManager.onDeferredWriteEntry();
+		try {
+			int start = 0;
+			while (start < logLength) {
+				RotatorType axis = RotatorType.get(log[start] / size);
+				int end = start + 1;
+				while (end < logLength && RotatorType.get(log[end] / size) == axis) {
+					++end;
+				}
+				applyNetTurns(start, end);
+				start = end;
+			}
+			logLength = 0;
+		} finally {
+			accessManager.onDeferredWriteExit();
+		}
+	}
+
+	// Moves of one axis commute, so each layer is turned only by its net quarter turns,
+	// counted as seen from the side among 0-2 whose layer numbers are the layer indices.
+	private void applyNetTurns(int start, int end) {
+		Map<Integer, Integer> quarterTurns = new LinkedHashMap<>();
+		int baseSide = -1;
+		for (int i = start; i < end; ++i) {
+			int side = log[i] / size;
+			int layer = log[i] % size;
+			baseSide = side < 3 ? side : SideType.getOpposite(side);
+			quarterTurns.merge(accessManager.getLayerIndex(side, layer), side == baseSide ? 1 : 3, Integer::sum);
+		}
+		for (var entry : quarterTurns.entrySet()) {
+			int layer = entry.getKey();
+			switch (entry.getValue() & 3) {
+				case 1:
+					eager.replay(baseSide, layer);
+					break;
+				case 2:
+					eager.replay(baseSide, layer);
+					eager.replay(baseSide, layer);
+					break;
+				case 3:
+					eager.replay(SideType.getOpposite(baseSide), size - 1 - layer);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Reads one sticker as it is after the logged moves, in O(log length),
+	 * without applying them.
+	 */
+	@Override
+	public synchronized int getSquare(int side, int row, int column) {
+		checkSquare(side, row, column);
+		int[] position = {side, row, column};
+		for (int i = logLength - 1; i >= 0; --i) {
+			traceBack(log[i] / size, log[i] % size, position);
+		}
+		return state.getSquare(SideType.from(position[0]), position[1], position[2]);
+	}
+
+	/**
+	 * Number of moves logged and not yet applied to the stickers.
+	 */
+	public synchronized int logLength() {
+		return logLength;
+	}
+
+	private synchronized int append(int side, int layer) {
+		if (logLength == log.length) {
+			log = Arrays.copyOf(log, 2 * log.length);
+		}
+		log[logLength++] = side * size + layer;
+		return logLength;
+	}
+
+	/**
+	 * Moves position, {side, row, column}, to where its sticker was before the move,
+	 * as the inverse of the strips and face turns of {@link CubeRotator#rotateCube}.
+	 */
+	private void traceBack(int moveSide, int layer, int[] position) {
+		int last = size - 1;
+		int side = position[0];
+		int row = position[1];
+		int column = position[2];
+
+		if (side == moveSide && layer == 0) {
+			// Turned clockwise.
+			set(position, side, last - column, row);
+			return;
+		}
+		if (side == SideType.getOpposite(moveSide) && layer == last && layer != 0) {
+			// Turned counter-clockwise.
+			set(position, side, column, last - row);
+			return;
+		}
+
+		SideType from = SideType.from(moveSide);
+		SideType at = SideType.from(side);
+		switch (from) {
+			case FRONT:
+				if (at == TOP && row == last - layer) {
+					set(position, LEFT.ordinal(), last - column, last - layer);
+				} else if (at == LEFT && column == last - layer) {
+					set(position, BOTTOM.ordinal(), layer, row);
+				} else if (at == BOTTOM && row == layer) {
+					set(position, RIGHT.ordinal(), last - column, layer);
+				} else if (at == RIGHT && column == layer) {
+					set(position, TOP.ordinal(), last - layer, row);
+				}
+				break;
+			case BACK:
+				if (at == TOP && row == layer) {
+					set(position, RIGHT.ordinal(), column, last - layer);
+				} else if (at == RIGHT && column == last - layer) {
+					set(position, BOTTOM.ordinal(), last - layer, last - row);
+				} else if (at == BOTTOM && row == last - layer) {
+					set(position, LEFT.ordinal(), column, layer);
+				} else if (at == LEFT && column == layer) {
+					set(position, TOP.ordinal(), layer, last - row);
+				}
+				break;
+			case TOP:
+				if (row == layer) {
+					if (at == BACK) {
+						set(position, LEFT.ordinal(), row, column);
+					} else if (at == LEFT) {
+						set(position, FRONT.ordinal(), row, column);
+					} else if (at == FRONT) {
+						set(position, RIGHT.ordinal(), row, column);
+					} else if (at == RIGHT) {
+						set(position, BACK.ordinal(), row, column);
+					}
+				}
+				break;
+			case BOTTOM:
+				if (row == last - layer) {
+					if (at == FRONT) {
+						set(position, LEFT.ordinal(), row, column);
+					} else if (at == LEFT) {
+						set(position, BACK.ordinal(), row, column);
+					} else if (at == BACK) {
+						set(position, RIGHT.ordinal(), row, column);
+					} else if (at == RIGHT) {
+						set(position, FRONT.ordinal(), row, column);
+					}
+				}
+				break;
+			case LEFT:
+				if (at == TOP && column == layer) {
+					set(position, BACK.ordinal(), last - row, last - layer);
+				} else if (at == BACK && column == last - layer) {
+					set(position, BOTTOM.ordinal(), last - row, layer);
+				} else if (at == BOTTOM && column == layer) {
+					set(position, FRONT.ordinal(), row, layer);
+				} else if (at == FRONT && column == layer) {
+					set(position, TOP.ordinal(), row, layer);
+				}
+				break;
+			case RIGHT:
+				if (at == TOP && column == last - layer) {
+					set(position, FRONT.ordinal(), row, last - layer);
+				} else if (at == FRONT && column == last - layer) {
+					set(position, BOTTOM.ordinal(), row, last - layer);
+				} else if (at == BOTTOM && column == last - layer) {
+					set(position, BACK.ordinal(), last - row, layer);
+				} else if (at == BACK && column == layer) {
+					set(position, TOP.ordinal(), last - row, last - layer);
+				}
+				break;
+		}
+	}
+
+	private static void set(int[] position, int side, int row, int column) {
+		position[0] = side;
+		position[1] = row;
+		position[2] = column;
+	}
+
+}
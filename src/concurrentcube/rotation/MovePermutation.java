@@ -0,0 +1,214 @@
+package concurrentcube.rotation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+import concurrentcube.structure.CubeState;
+import concurrentcube.structure.SideType;
+import concurrentcube.structure.StickerStorage;
+import concurrentcube.util.AccessManager;
+
+/**
+ * Describes a single (side, layer) move as a permutation
+ * of sticker indices. Sticker (side, row, column) has index
+ * side * size * size + row * size + column.
+ */
+public class MovePermutation {
+
+	private static final int CUBE_SIDES = 6;
+
+	private MovePermutation() {
+	}
+
+	/**
+	 * Returns an array that for every sticker index
+	 * holds the index the sticker is moved from.
+	 * Derived by applying the move with {@link CubeRotator}
+	 * to a cube whose stickers are labelled with their own indices.
+	 */
+	public static int[] sources(int size, int side, int layer) {
+		LabelledStickerStorage labels = new LabelledStickerStorage(size);
+		CubeState state = new CubeState(labels);
+		CubeRotator rotator = new CubeRotator(state, (x, y) -> {}, (x, y) -> {}, new AccessManager(size));
+		rotator.rotateCube(side, layer);
+
+		int[] sources = new int[CUBE_SIDES * size * size];
+		for (var sideType : SideType.values()) {
+			for (int row = 0; row < size; ++row) {
+				for (int column = 0; column < size; ++column) {
+					sources[index(size, sideType.ordinal(), row, column)] = state.getSquare(sideType, row, column);
+				}
+			}
+		}
+		return sources;
+	}
+
+	/**
+	 * Returns the move as cycles of sticker indices, in the format
+	 * taken by {@link StickerStorage#permute}. Stickers that do not move
+	 * are omitted, so an inner layer move takes O(size) entries to describe.
+	 */
+	public static int[] cycles(int size, int side, int layer) {
+		SparseLabelledStickerStorage labels = new SparseLabelledStickerStorage(size);
+		CubeState state = new CubeState(labels);
+		CubeRotator rotator = new CubeRotator(state, (x, y) -> {}, (x, y) -> {}, new AccessManager(size));
+		rotator.rotateCube(side, layer);
+
+		int sideLength = size * size;
+		Map<Integer, Integer> sources = new HashMap<>();
+		for (int index : labels.written()) {
+			SideType sideType = SideType.from(index / sideLength);
+			int source = state.getSquare(sideType, (index % sideLength) / size, index % size);
+			if (source != index) {
+				sources.put(index, source);
+			}
+		}
+
+		// Face turns only retag the side, so the whole turned face is read.
+		if (layer == 0) {
+			addFaceSources(state, size, SideType.from(side), sources);
+		}
+		if (layer == size - 1) {
+			addFaceSources(state, size, SideType.from(SideType.getOpposite(side)), sources);
+		}
+
+		return toCycles(sources);
+	}
+
+	/**
+	 * Composes moves given as cycles into a single permutation
+	 * equivalent to applying them in order.
+	 * Takes O(total length of the cycles) time.
+	 */
+	public static int[] compose(Iterable<int[]> moves) {
+		// index -> index the sticker comes from before the first move
+		Map<Integer, Integer> sources = new HashMap<>();
+		List<int[]> updates = new ArrayList<>();
+		for (int[] cycles : moves) {
+			updates.clear();
+			forEachSource(cycles, (index, source) ->
+					updates.add(new int[] {index, sources.getOrDefault(source, source)}));
+			for (int[] update : updates) {
+				if (update[0] == update[1]) {
+					sources.remove(update[0]);
+				} else {
+					sources.put(update[0], update[1]);
+				}
+			}
+		}
+		return toCycles(sources);
+	}
+
+	private static void forEachSource(int[] cycles, BiConsumer<Integer, Integer> action) {
+		int first = 0;
+		for (int i = 0; i < cycles.length; ++i) {
+			if (cycles[i] < 0) {
+				action.accept(~cycles[i], cycles[first]);
+				first = i + 1;
+			} else {
+				action.accept(cycles[i], cycles[i + 1] < 0 ? ~cycles[i + 1] : cycles[i + 1]);
+			}
+		}
+	}
+
+	// Turns a map from index to the index its sticker comes from into cycles.
+	private static int[] toCycles(Map<Integer, Integer> sources) {
+		TreeMap<Integer, Integer> remaining = new TreeMap<>(sources);
+		int[] cycles = new int[remaining.size()];
+		int count = 0;
+		while (!remaining.isEmpty()) {
+			int first = remaining.firstKey();
+			int current = first;
+			do {
+				cycles[count++] = current;
+				current = remaining.remove(current);
+			} while (current != first);
+			cycles[count - 1] = ~cycles[count - 1];
+		}
+		return cycles;
+	}
+
+	private static void addFaceSources(CubeState state, int size, SideType face, Map<Integer, Integer> sources) {
+		for (int row = 0; row < size; ++row) {
+			for (int column = 0; column < size; ++column) {
+				int index = index(size, face.ordinal(), row, column);
+				int source = state.getSquare(face, row, column);
+				if (source != index) {
+					sources.put(index, source);
+				}
+			}
+		}
+	}
+
+	static int index(int size, int side, int row, int column) {
+		return (side * size + row) * size + column;
+	}
+
+	private static class LabelledStickerStorage implements StickerStorage {
+
+		private final int[] labels;
+		private final int size;
+
+		LabelledStickerStorage(int size) {
+			this.size = size;
+			labels = new int[CUBE_SIDES * size * size];
+			for (int i = 0; i < labels.length; ++i) {
+				labels[i] = i;
+			}
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public int get(int side, int row, int column) {
+			return labels[index(size, side, row, column)];
+		}
+
+		@Override
+		public void set(int side, int row, int column, int color) {
+			labels[index(size, side, row, column)] = color;
+		}
+	}
+
+	/**
+	 * Labels stickers with their own indices,
+	 * storing only the labels that were overwritten.
+	 */
+	private static class SparseLabelledStickerStorage implements StickerStorage {
+
+		private final Map<Integer, Integer> labels = new HashMap<>();
+		private final int size;
+
+		SparseLabelledStickerStorage(int size) {
+			this.size = size;
+		}
+
+		Iterable<Integer> written() {
+			return labels.keySet();
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public int get(int side, int row, int column) {
+			int index = index(size, side, row, column);
+			return labels.getOrDefault(index, index);
+		}
+
+		@Override
+		public void set(int side, int row, int column, int color) {
+			labels.put(index(size, side, row, column), color);
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+package concurrentcube.rotation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sequence of (side, layer) moves compiled into a single permutation
+ * of stickers, which can be applied to any cube of the same size
+ * in one pass, touching only the stickers the sequence moves.
+ *
+ * Compiled sequences are cached, so compiling the same moves again is cheap.
+ */
+public class MoveSequence {
+
+	private static final int CACHED_SEQUENCES = 256;
+
+	private static final Map<Key, MoveSequence> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, MoveSequence> eldest) {
+			return size() > CACHED_SEQUENCES;
+		}
+	};
+
+	private final int size;
+	private final int[][] moves;
+	private final int[] cycles;
+
+	private MoveSequence(int size, int[][] moves, int[] cycles) {
+		this.size = size;
+		this.moves = moves;
+		this.cycles = cycles;
+	}
+
+	/**
+	 * Compiles moves, each given as {side, layer}, for cubes of the given size.
+	 */
+	public static MoveSequence compile(int size, int[][] moves) {
+		if (!MoveTableCache.supports(size)) {
+			throw new IllegalArgumentException("Cubes of size " + size + " are too large for move sequences.");
+		}
+		int[][] copy = new int[moves.length][];
+		for (int i = 0; i < moves.length; ++i) {
+			if (moves[i].length != 2 || moves[i][0] < 0 || moves[i][0] > 5
+					|| moves[i][1] < 0 || moves[i][1] >= size) {
+				throw new IllegalArgumentException("Invalid move " + Arrays.toString(moves[i]) + ".");
+			}
+			copy[i] = moves[i].clone();
+		}
+
+		Key key = new Key(size, copy);
+		synchronized (CACHE) {
+			MoveSequence cached = CACHE.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		MoveTableCache tables = MoveTableCache.shared();
+		MoveTableCache.Table[] slots = tables.tablesOf(size);
+		List<int[]> moveCycles = new ArrayList<>();
+		for (int[] move : copy) {
+			moveCycles.add(tables.get(slots, size, move[0], move[1]));
+		}
+		MoveSequence sequence = new MoveSequence(size, copy, MovePermutation.compose(moveCycles));
+
+		synchronized (CACHE) {
+			CACHE.put(key, sequence);
+		}
+		return sequence;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	int moveCount() {
+		return moves.length;
+	}
+
+	int side(int move) {
+		return moves[move][0];
+	}
+
+	int layer(int move) {
+		return moves[move][1];
+	}
+
+	int[] cycles() {
+		return cycles;
+	}
+
+	private static class Key {
+
+		final int size;
+		final int[][] moves;
+
+		Key(int size, int[][] moves) {
+			this.size = size;
+			this.moves = moves;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && ((Key) other).size == size
+					&& Arrays.deepEquals(((Key) other).moves, moves);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * size + Arrays.deepHashCode(moves);
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+package concurrentcube.rotation;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lazily built move tables (see {@link MovePermutation#cycles}),
+ * shared by all cubes of the same size.
+ *
+ * The cache is bounded by the memory taken by its tables and evicts
+ * the least recently used ones when the bound is exceeded.
+ * Recency is counted in cache misses: a hit stamps the table with
+ * the number of tables built so far, which is all that eviction,
+ * happening only on a miss, needs to order tables.
+ * Hits do not lock; building and evicting tables does.
+ * A single table larger than the bound is still kept until another one is built.
+ */
+public class MoveTableCache {
+
+	public static final long DEFAULT_CAPACITY_BYTES = 64L << 20;
+
+	private static final MoveTableCache SHARED = new MoveTableCache(
+			Long.getLong("concurrentcube.moveTableCacheBytes", DEFAULT_CAPACITY_BYTES));
+
+	private static final int CUBE_SIDES = 6;
+
+	// Tables of cubes of one size, indexed by side * size + layer.
+	private final Map<Integer, Table[]> tablesBySize = new ConcurrentHashMap<>();
+	private final long capacityBytes;
+	private long usedBytes;
+	private volatile long clock;
+
+	public MoveTableCache(long capacityBytes) {
+		this.capacityBytes = capacityBytes;
+	}
+
+	public static MoveTableCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Whether sticker indices of a cube of the given size fit in an int.
+	 */
+	public static boolean supports(int size) {
+		return (long) CUBE_SIDES * size * size <= Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the slots for tables of the given size.
+	 * Callers keep the result, so hits do not go through the map.
+	 */
+	Table[] tablesOf(int size) {
+		return tablesBySize.computeIfAbsent(size, s -> new Table[CUBE_SIDES * s]);
+	}
+
+	int[] get(Table[] tables, int size, int side, int layer) {
+		Table table = tables[side * size + layer];
+		if (table == null) {
+			table = load(tables, size, side, layer);
+		}
+		long now = clock;
+		if (table.lastUsed != now) {
+			table.lastUsed = now;
+		}
+		return table.cycles;
+	}
+
+	public synchronized long usedBytes() {
+		return usedBytes;
+	}
+
+	private synchronized Table load(Table[] tables, int size, int side, int layer) {
+		int slot = side * size + layer;
+		if (tables[slot] != null) {
+			return tables[slot];
+		}
+
+		Table table = new Table(MovePermutation.cycles(size, side, layer));
+		usedBytes += table.bytes();
+		++clock;
+		while (usedBytes > capacityBytes) {
+			if (!evictLeastRecentlyUsed()) {
+				break;
+			}
+		}
+		tables[slot] = table;
+		return table;
+	}
+
+	private boolean evictLeastRecentlyUsed() {
+		Table[] oldestTables = null;
+		int oldestSlot = -1;
+		long oldestUse = Long.MAX_VALUE;
+		for (Table[] tables : tablesBySize.values()) {
+			for (int slot = 0; slot < tables.length; ++slot) {
+				if (tables[slot] != null && tables[slot].lastUsed < oldestUse) {
+					oldestTables = tables;
+					oldestSlot = slot;
+					oldestUse = tables[slot].lastUsed;
+				}
+			}
+		}
+		if (oldestTables == null) {
+			return false;
+		}
+		usedBytes -= oldestTables[oldestSlot].bytes();
+		oldestTables[oldestSlot] = null;
+		return true;
+	}
+
+	static class Table {
+
+		final int[] cycles;
+		long lastUsed;
+
+		Table(int[] cycles) {
+			this.cycles = cycles;
+		}
+
+		long bytes() {
+			return 16L + 4L * cycles.length;
+		}
+	}
+
+}
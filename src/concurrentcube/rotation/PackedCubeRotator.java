@@ -0,0 +1,183 @@
+package concurrentcube.rotation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import concurrentcube.structure.CubeState;
+import concurrentcube.structure.PackedStickerStorage;
+import concurrentcube.util.AccessManager;
+
+/**
+ * Rotator for cubes kept in {@link PackedStickerStorage}.
+ *
+ * Every move is a fixed program of mask and shift operations
+ * on the packed sides, prepared once per cube size
+ * from the permutation of the generic rotation.
+ * Sides are never retagged, their orientation stays 0.
+ */
+public class PackedCubeRotator extends CubeRotator {
+
+	private static final int CUBE_SIDES = 6;
+
+	// PROGRAMS[size][side][layer]
+	private static final Move[][][] PROGRAMS = new Move[PackedStickerStorage.MAX_SIZE + 1][][];
+
+	static {
+		for (int size = 1; size <= PackedStickerStorage.MAX_SIZE; ++size) {
+			PROGRAMS[size] = new Move[CUBE_SIDES][size];
+			for (int side = 0; side < CUBE_SIDES; ++side) {
+				for (int layer = 0; layer < size; ++layer) {
+					PROGRAMS[size][side][layer] = compile(size, MovePermutation.sources(size, side, layer));
+				}
+			}
+		}
+	}
+
+	private final CubeState state;
+	private final PackedStickerStorage storage;
+	private final Move[][] programs;
+
+	public PackedCubeRotator(CubeState state, PackedStickerStorage storage,
+			BiConsumer<Integer, Integer> beforeRotation, BiConsumer<Integer, Integer> afterRotation,
+			AccessManager accessManager) {
+		super(state, beforeRotation, afterRotation, accessManager);
+		this.state = state;
+		this.storage = storage;
+		this.programs = PROGRAMS[storage.size()];
+	}
+
+	@Override
+	protected void rotateCube(int side, int layer) {
+		Move move = programs[side][layer];
+		long snapshot = move.snapshotSide >= 0 ? storage.getSide(move.snapshotSide) : 0;
+		for (Transfer transfer : move.transfers) {
+			long source = transfer.fromSnapshot ? snapshot : storage.getSide(transfer.source);
+			long bits = 0;
+			for (int i = 0; i < transfer.masks.length; ++i) {
+				long moved = source & transfer.masks[i];
+				int delta = transfer.deltas[i];
+				bits |= delta >= 0 ? moved << delta : moved >>> -delta;
+			}
+			storage.replace(transfer.destination, transfer.destinationMask, bits);
+			state.markSideDirty(transfer.destination);
+		}
+	}
+
+	/**
+	 * Moves the stickers selected by masks from the source side
+	 * to the destination side, each mask shifted by its delta.
+	 */
+	private static class Transfer {
+
+		final int destination;
+		final int source;
+		final long destinationMask;
+		final long[] masks;
+		final int[] deltas;
+		boolean fromSnapshot;
+
+		Transfer(int destination, int source, long destinationMask, long[] masks, int[] deltas) {
+			this.destination = destination;
+			this.source = source;
+			this.destinationMask = destinationMask;
+			this.masks = masks;
+			this.deltas = deltas;
+		}
+	}
+
+	/**
+	 * Transfers ordered so that no side is overwritten before it is read.
+	 * A cycle of sides is broken by reading its first side
+	 * from a snapshot taken before any write.
+	 */
+	private static class Move {
+
+		final Transfer[] transfers;
+		final int snapshotSide;
+
+		Move(Transfer[] transfers, int snapshotSide) {
+			this.transfers = transfers;
+			this.snapshotSide = snapshotSide;
+		}
+	}
+
+	private static Move compile(int size, int[] sources) {
+		int sideLength = size * size;
+		long stickerMask = (1L << PackedStickerStorage.BITS_PER_STICKER) - 1;
+
+		// (destination, source) -> (delta -> source mask)
+		Map<Integer, Map<Integer, Long>> masksBySides = new LinkedHashMap<>();
+		for (int destination = 0; destination < sources.length; ++destination) {
+			int source = sources[destination];
+			if (source == destination) {
+				continue;
+			}
+			int sourceShift = (source % sideLength) * PackedStickerStorage.BITS_PER_STICKER;
+			int destinationShift = (destination % sideLength) * PackedStickerStorage.BITS_PER_STICKER;
+			int sides = (destination / sideLength) * CUBE_SIDES + source / sideLength;
+			masksBySides.computeIfAbsent(sides, k -> new LinkedHashMap<>())
+					.merge(destinationShift - sourceShift, stickerMask << sourceShift, (a, b) -> a | b);
+		}
+
+		List<Transfer> pending = new ArrayList<>();
+		for (var entry : masksBySides.entrySet()) {
+			int destination = entry.getKey() / CUBE_SIDES;
+			int source = entry.getKey() % CUBE_SIDES;
+			long[] masks = new long[entry.getValue().size()];
+			int[] deltas = new int[masks.length];
+			long destinationMask = 0;
+			int i = 0;
+			for (var shifted : entry.getValue().entrySet()) {
+				deltas[i] = shifted.getKey();
+				masks[i] = shifted.getValue();
+				destinationMask |= deltas[i] >= 0 ? masks[i] << deltas[i] : masks[i] >>> -deltas[i];
+				++i;
+			}
+			pending.add(new Transfer(destination, source, destinationMask, masks, deltas));
+		}
+
+		List<Transfer> ordered = new ArrayList<>();
+		int snapshotSide = -1;
+		while (!pending.isEmpty()) {
+			Transfer next = null;
+			for (Transfer candidate : pending) {
+				if (!isReadLater(candidate, pending, snapshotSide)) {
+					next = candidate;
+					break;
+				}
+			}
+			if (next == null) {
+				if (snapshotSide >= 0) {
+					throw new IllegalStateException("Move needs more than one snapshot.");
+				}
+				snapshotSide = pending.get(0).destination;
+				continue;
+			}
+			pending.remove(next);
+			ordered.add(next);
+		}
+
+		for (Transfer transfer : ordered) {
+			transfer.fromSnapshot = transfer.source == snapshotSide && transfer.source != transfer.destination;
+		}
+		return new Move(ordered.toArray(new Transfer[0]), snapshotSide);
+	}
+
+	// Whether some other pending transfer still needs the
+	// current value of the candidate's destination side.
+	private static boolean isReadLater(Transfer candidate, List<Transfer> pending, int snapshotSide) {
+		if (candidate.destination == snapshotSide) {
+			return false;
+		}
+		for (Transfer other : pending) {
+			if (other != candidate && other.source == candidate.destination) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
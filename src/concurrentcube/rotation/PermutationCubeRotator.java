@@ -0,0 +1,42 @@
+package concurrentcube.rotation;
+
+import java.util.function.BiConsumer;
+
+import concurrentcube.structure.CubeState;
+import concurrentcube.structure.StickerStorage;
+import concurrentcube.util.AccessManager;
+
+/**
+ * Rotator applying every move as a precomputed table of
+ * sticker index cycles taken from a {@link MoveTableCache}.
+ *
+ * Face turns are part of the tables, so sides are never retagged
+ * and their orientation stays 0.
+ */
+public class PermutationCubeRotator extends CubeRotator {
+
+	private final CubeState state;
+	private final StickerStorage storage;
+	private final MoveTableCache cache;
+	private final MoveTableCache.Table[] tables;
+	private final int size;
+
+	public PermutationCubeRotator(CubeState state, StickerStorage storage, MoveTableCache tables,
+			BiConsumer<Integer, Integer> beforeRotation, BiConsumer<Integer, Integer> afterRotation,
+			AccessManager accessManager) {
+		super(state, beforeRotation, afterRotation, accessManager);
+		this.state = state;
+		this.storage = storage;
+		this.cache = tables;
+		this.size = storage.size();
+		this.tables = tables.tablesOf(size);
+	}
+
+	@Override
+	protected void rotateCube(int side, int layer) {
+		int[] cycles = cache.get(tables, size, side, layer);
+		storage.permute(cycles);
+		state.markDirty(cycles);
+	}
+
+}
@@ -0,0 +1,62 @@
+package concurrentcube.structure;
+
+/**
+ * Keeps all stickers on the heap in one contiguous array,
+ * one byte per sticker, side after side and row by row.
+ */
+public class ArrayStickerStorage implements StickerStorage {
+
+	private static final int CUBE_SIDES = 6;
+
+	private final byte[] squares;
+	private final int size;
+	private final int sideLength;
+
+	public ArrayStickerStorage(int size) {
+		if ((long) CUBE_SIDES * size * size > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Cube of size " + size + " does not fit in an array, "
+					+ "use OffHeapStickerStorage instead.");
+		}
+		this.size = size;
+		this.sideLength = size * size;
+		squares = new byte[CUBE_SIDES * sideLength];
+		for (int side = 0; side < CUBE_SIDES; ++side) {
+			for (int i = 0; i < sideLength; ++i) {
+				squares[side * sideLength + i] = (byte) side;
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void permute(int[] cycles) {
+		int i = 0;
+		while (i < cycles.length) {
+			int to = cycles[i];
+			byte saved = squares[to];
+			int from;
+			while ((from = cycles[++i]) >= 0) {
+				squares[to] = squares[from];
+				to = from;
+			}
+			squares[to] = squares[~from];
+			squares[~from] = saved;
+			++i;
+		}
+	}
+
+	@Override
+	public int get(int side, int row, int column) {
+		return squares[side * sideLength + row * size + column];
+	}
+
+	@Override
+	public void set(int side, int row, int column, int color) {
+		squares[side * sideLength + row * size + column] = (byte) color;
+	}
+
+}
@@ -0,0 +1,137 @@
+package concurrentcube.structure;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Wraps a storage so that its state can be frozen in a moment
+ * and read while the stickers go on changing.
+ *
+ * While frozen, every physical row is handed to the reader exactly once:
+ * either the reader gets to the row first and reads it in place, or the first
+ * write to the row saves a copy of it before changing it, and the reader gets the copy.
+ * A writer and the reader meeting on one row wait for each other
+ * for no longer than it takes to copy the row.
+ */
+public class CopyOnWriteStickerStorage implements StickerStorage {
+
+	private static final int CUBE_SIDES = 6;
+
+	private static final int PENDING = 0;
+	private static final int BUSY = 1;
+	private static final int DONE = 2;
+
+	private final StickerStorage stickers;
+	private final int size;
+
+	private volatile Frozen frozen;
+
+	public CopyOnWriteStickerStorage(StickerStorage stickers) {
+		this.stickers = stickers;
+		this.size = stickers.size();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int get(int side, int row, int column) {
+		return stickers.get(side, row, column);
+	}
+
+	@Override
+	public void set(int side, int row, int column, int color) {
+		Frozen current = frozen;
+		if (current != null) {
+			current.beforeWrite(side * size + row);
+		}
+		stickers.set(side, row, column, color);
+	}
+
+	@Override
+	public void permute(int[] cycles) {
+		Frozen current = frozen;
+		if (current != null) {
+			// Sticker index / size is the index of its row.
+			for (int index : cycles) {
+				current.beforeWrite((index < 0 ? ~index : index) / size);
+			}
+		}
+		stickers.permute(cycles);
+	}
+
+	@Override
+	public int orientation(int side) {
+		return stickers.orientation(side);
+	}
+
+	@Override
+	public void setOrientation(int side, int orientation) {
+		stickers.setOrientation(side, orientation);
+	}
+
+	/**
+	 * Freezes the stickers as they are now, until the returned rows are released.
+	 * Must not run concurrently with writes; only one state can be frozen at a time.
+	 */
+	FrozenCube.Rows freeze() {
+		if (frozen != null) {
+			throw new IllegalStateException("Storage is already frozen.");
+		}
+		frozen = new Frozen();
+		return frozen;
+	}
+
+	private class Frozen implements FrozenCube.Rows {
+
+		// Rows by side * size + row.
+		private final AtomicIntegerArray states = new AtomicIntegerArray(CUBE_SIDES * size);
+		private final AtomicReferenceArray<byte[]> copies = new AtomicReferenceArray<>(CUBE_SIDES * size);
+
+		void beforeWrite(int row) {
+			int state;
+			while ((state = states.get(row)) != DONE) {
+				if (state == PENDING && states.compareAndSet(row, PENDING, BUSY)) {
+					byte[] copy = new byte[size];
+					readInPlace(row, copy);
+					copies.set(row, copy);
+					states.set(row, DONE);
+					return;
+				}
+				Thread.onSpinWait();
+			}
+		}
+
+		@Override
+		public void read(int side, int row, byte[] into) {
+			int index = side * size + row;
+			if (states.compareAndSet(index, PENDING, BUSY)) {
+				readInPlace(index, into);
+				states.set(index, DONE);
+				return;
+			}
+			while (states.get(index) != DONE) {
+				Thread.onSpinWait();
+			}
+			System.arraycopy(copies.getAndSet(index, null), 0, into, 0, size);
+		}
+
+		@Override
+		public void release() {
+			if (frozen == this) {
+				frozen = null;
+			}
+		}
+
+		private void readInPlace(int index, byte[] into) {
+			int side = index / size;
+			int row = index % size;
+			for (int column = 0; column < size; ++column) {
+				into[column] = (byte) stickers.get(side, row, column);
+			}
+		}
+	}
+
+}
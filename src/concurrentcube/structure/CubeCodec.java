@@ -0,0 +1,224 @@
+package concurrentcube.structure;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Binary encoding of a cube state, 3 bits per sticker.
+ *
+ * Format, big-endian:
+ * <ul>
+ * <li>version, one byte, currently 1,</li>
+ * <li>size, an int,</li>
+ * <li>orientations of the sides, 2 bits each from the lowest, in a short,</li>
+ * <li>stickers as they are stored, side after side and row by row,
+ * STICKERS_PER_WORD of them in every long, from its lowest bits.</li>
+ * </ul>
+ * Stickers are encoded unrotated together with the orientation tags,
+ * so neither side has to remap them.
+ */
+public class CubeCodec {
+
+	public static final byte VERSION = 1;
+
+	private static final int CUBE_SIDES = 6;
+	private static final int BITS_PER_STICKER = 3;
+	private static final int STICKERS_PER_WORD = Long.SIZE / BITS_PER_STICKER;
+	private static final long STICKER_MASK = (1L << BITS_PER_STICKER) - 1;
+	private static final int HEADER_BYTES = Byte.BYTES + Integer.BYTES + Short.BYTES;
+	private static final int STREAM_BUFFER_BYTES = 1 << 16;
+
+	private CubeCodec() {
+	}
+
+	/**
+	 * Number of bytes a cube of the given size is encoded in.
+	 */
+	public static long encodedLength(int size) {
+		long stickers = (long) CUBE_SIDES * size * size;
+		return HEADER_BYTES + (stickers + STICKERS_PER_WORD - 1) / STICKERS_PER_WORD * Long.BYTES;
+	}
+
+	public static byte[] encode(CubeState cube) {
+		long length = encodedLength(cube.size());
+		if (length > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Cube of size " + cube.size()
+					+ " does not fit in an array, encode it into buffers instead.");
+		}
+		byte[] encoded = new byte[(int) length];
+		encode(cube, ByteBuffer.wrap(encoded));
+		return encoded;
+	}
+
+	/**
+	 * Encodes the cube at the buffer's position.
+	 * Must not run concurrently with changes to the cube.
+	 */
+	public static void encode(CubeState cube, ByteBuffer out) {
+		cube.materialize();
+		int size = cube.size();
+		ByteOrder order = out.order();
+		out.order(ByteOrder.BIG_ENDIAN);
+		try {
+			int[] orientations = new int[CUBE_SIDES];
+			for (int side = 0; side < CUBE_SIDES; ++side) {
+				orientations[side] = cube.sideStates[side].orientation();
+			}
+			putHeader(out, size, orientations);
+
+			StickerStorage storage = cube.storage();
+			long word = 0;
+			int inWord = 0;
+			for (int side = 0; side < CUBE_SIDES; ++side) {
+				for (int row = 0; row < size; ++row) {
+					for (int column = 0; column < size; ++column) {
+						word |= (long) storage.get(side, row, column) << (inWord * BITS_PER_STICKER);
+						if (++inWord == STICKERS_PER_WORD) {
+							out.putLong(word);
+							word = 0;
+							inWord = 0;
+						}
+					}
+				}
+			}
+			if (inWord > 0) {
+				out.putLong(word);
+			}
+		} finally {
+			out.order(order);
+		}
+	}
+
+	/**
+	 * Encodes frozen rows into out through a buffer of bounded size.
+	 */
+	static void encode(int size, int[] orientations, FrozenCube.Rows rows, WritableByteChannel out)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_BYTES);
+		putHeader(buffer, size, orientations);
+		byte[] row = new byte[size];
+		long word = 0;
+		int inWord = 0;
+		for (int side = 0; side < CUBE_SIDES; ++side) {
+			for (int rowNumber = 0; rowNumber < size; ++rowNumber) {
+				rows.read(side, rowNumber, row);
+				for (int column = 0; column < size; ++column) {
+					word |= (long) row[column] << (inWord * BITS_PER_STICKER);
+					if (++inWord == STICKERS_PER_WORD) {
+						if (buffer.remaining() < Long.BYTES) {
+							drain(buffer, out);
+						}
+						buffer.putLong(word);
+						word = 0;
+						inWord = 0;
+					}
+				}
+			}
+		}
+		if (inWord > 0) {
+			if (buffer.remaining() < Long.BYTES) {
+				drain(buffer, out);
+			}
+			buffer.putLong(word);
+		}
+		drain(buffer, out);
+	}
+
+	private static void putHeader(ByteBuffer out, int size, int[] orientations) {
+		out.put(VERSION);
+		out.putInt(size);
+		short packed = 0;
+		for (int side = 0; side < CUBE_SIDES; ++side) {
+			packed |= orientations[side] << (2 * side);
+		}
+		out.putShort(packed);
+	}
+
+	private static void drain(ByteBuffer buffer, WritableByteChannel out) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Decodes a cube from the buffer's position into array storage,
+	 * checking the header before anything is allocated.
+	 */
+	public static CubeState decode(ByteBuffer in) {
+		ByteBuffer header = in.duplicate().order(ByteOrder.BIG_ENDIAN);
+		if (header.remaining() < HEADER_BYTES) {
+			throw new BufferUnderflowException();
+		}
+		checkVersion(header.get());
+		int size = header.getInt();
+		if (size < 1) {
+			throw new IllegalArgumentException("Invalid encoded cube size " + size + ".");
+		}
+		if ((long) CUBE_SIDES * size * size > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Encoded cube of size " + size
+					+ " does not fit in an array, decode it into another storage instead.");
+		}
+		if (in.remaining() < encodedLength(size)) {
+			throw new BufferUnderflowException();
+		}
+		return decode(in, new ArrayStickerStorage(size));
+	}
+
+	/**
+	 * Decodes a cube from the buffer's position into the given storage,
+	 * which must be of the encoded size.
+	 */
+	public static CubeState decode(ByteBuffer in, StickerStorage storage) {
+		ByteOrder order = in.order();
+		in.order(ByteOrder.BIG_ENDIAN);
+		try {
+			checkVersion(in.get());
+			int size = in.getInt();
+			if (size != storage.size()) {
+				throw new IllegalArgumentException("Encoded cube of size " + size
+						+ " does not match storage of size " + storage.size() + ".");
+			}
+			if (in.remaining() < encodedLength(size) - HEADER_BYTES) {
+				throw new BufferUnderflowException();
+			}
+			short orientations = in.getShort();
+
+			CubeState cube = new CubeState(storage);
+			long word = 0;
+			int inWord = STICKERS_PER_WORD;
+			for (int side = 0; side < CUBE_SIDES; ++side) {
+				for (int row = 0; row < size; ++row) {
+					for (int column = 0; column < size; ++column) {
+						if (inWord == STICKERS_PER_WORD) {
+							word = in.getLong();
+							inWord = 0;
+						}
+						int color = (int) ((word >>> (inWord++ * BITS_PER_STICKER)) & STICKER_MASK);
+						if (color >= CUBE_SIDES) {
+							throw new IllegalArgumentException("Invalid sticker color " + color + ".");
+						}
+						storage.set(side, row, column, color);
+					}
+				}
+			}
+			for (int side = 0; side < CUBE_SIDES; ++side) {
+				cube.sideStates[side].setOrientation((orientations >>> (2 * side)) & 3);
+			}
+			return cube;
+		} finally {
+			in.order(order);
+		}
+	}
+
+	private static void checkVersion(byte version) {
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported cube encoding version " + version + ".");
+		}
+	}
+
+}
@@ -2,17 +2,32 @@ package concurrentcube.structure;
 
 public class CubeSideState {
 
-	private final int[][] squares;
+	private static final int CUBE_SIDES = 6;
+
+	private final StickerStorage squares;
+	private final int side;
 	private final int size;
+	private final DirtyRows dirtyRows;
+	// Index of the side's first row in dirtyRows.
+	private final int firstRow;
 
-	public CubeSideState(int side, int size) {
-		this.size = size;
-		squares = new int[size][size];
-		for (int i = 0; i < size; ++i) {
-			for (int j = 0; j < size; ++j) {
-				squares[i][j] = side;
-			}
-		}
+	// Number of clockwise quarter turns (0-3) by which
+	// the logical side is rotated relative to squares.
+	// Turning the side only changes this tag,
+	// every access maps logical coordinates through it.
+	private int orientation;
+
+	public CubeSideState(StickerStorage squares, int side) {
+		this(squares, side, new DirtyRows(CUBE_SIDES * squares.size()));
+	}
+
+	CubeSideState(StickerStorage squares, int side, DirtyRows dirtyRows) {
+		this.squares = squares;
+		this.side = side;
+		this.size = squares.size();
+		this.dirtyRows = dirtyRows;
+		this.firstRow = side * size;
+		this.orientation = squares.orientation(side);
 	}
 
 	@Override
@@ -20,7 +35,7 @@ public class CubeSideState {
 		StringBuilder serializedSide = new StringBuilder();
 		for (int i = 0; i < size; ++i) {
 			for (int j = 0; j < size; ++j) {
-				serializedSide.append(squares[i][j]);
+				serializedSide.append(getSquare(i, j));
 			}
 		}
 		return serializedSide.toString();
@@ -29,7 +44,7 @@ public class CubeSideState {
 	public int[] getRow(int rowNumber) {
 		int[] row = new int[size];
 		for (int i = 0; i < size; ++i) {
-			row[i] = squares[rowNumber][i];
+			row[i] = getSquare(rowNumber, i);
 		}
 		return row;
 	}
@@ -37,22 +52,86 @@ public class CubeSideState {
 	public int[] getColumn(int columnNumber) {
 		int[] column = new int[size];
 		for (int i = 0; i < size; ++i) {
-			column[i] = squares[i][columnNumber];
+			column[i] = getSquare(i, columnNumber);
 		}
 		return column;
 	}
 
 	public void setRow(int[] row, int rowNumber) {
 		for (int i = 0; i < size; ++i) {
-			squares[rowNumber][i] = row[i];
+			setSquare(rowNumber, i, row[i]);
 		}
 	}
 
 	public void setColumn(int[] column, int columnNumber) {
 		for (int i = 0; i < size; ++i) {
-			squares[i][columnNumber] = column[i];
+			setSquare(i, columnNumber, column[i]);
 		}
 	}
 
+	public int getSquare(int rowNumber, int columnNumber) {
+		return squares.get(side, physicalRow(rowNumber, columnNumber), physicalColumn(rowNumber, columnNumber));
+	}
+
+	public void setSquare(int rowNumber, int columnNumber, int color) {
+		squares.set(side, physicalRow(rowNumber, columnNumber), physicalColumn(rowNumber, columnNumber), color);
+		dirtyRows.mark(firstRow + rowNumber);
+	}
+
+	public void rotateClockwise() {
+		orientation = (orientation + 1) & 3;
+		squares.setOrientation(side, orientation);
+		markDirty();
+	}
+
+	public void rotateCounterClockwise() {
+		orientation = (orientation + 3) & 3;
+		squares.setOrientation(side, orientation);
+		markDirty();
+	}
+
+	void markDirty() {
+		dirtyRows.mark(firstRow, firstRow + size);
+	}
+
+	public boolean isTurned() {
+		return orientation != 0;
+	}
+
+	int orientation() {
+		return orientation;
+	}
+
+	void setOrientation(int orientation) {
+		this.orientation = orientation;
+		squares.setOrientation(side, orientation);
+		markDirty();
+	}
+
+	private int physicalRow(int rowNumber, int columnNumber) {
+		switch (orientation) {
+			case 0:
+				return rowNumber;
+			case 1:
+				return size - 1 - columnNumber;
+			case 2:
+				return size - 1 - rowNumber;
+			default:
+				return columnNumber;
+		}
+	}
+
+	private int physicalColumn(int rowNumber, int columnNumber) {
+		switch (orientation) {
+			case 0:
+				return columnNumber;
+			case 1:
+				return rowNumber;
+			case 2:
+				return size - 1 - columnNumber;
+			default:
+				return size - 1 - rowNumber;
+		}
+	}
 
 }
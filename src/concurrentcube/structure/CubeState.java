@@ -1,22 +1,64 @@
 package concurrentcube.structure;
 
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
 public class CubeState {
 
 	private final static int CUBE_SIDES = 6;
 
+	// Largest cube kept encoded, and the stickers encoded at once for larger ones.
+	private static final long MAX_ENCODED_LENGTH = Integer.MAX_VALUE - 8;
+	private static final int CHUNK_LENGTH = 1 << 16;
+
+	private final StickerStorage storage;
 	CubeSideState[] sideStates;
 	int size;
 
+	// Rows changed since they were last encoded into encoded,
+	// and the string of encoded while no row has been re-encoded.
+	private final DirtyRows dirtyRows;
+	private byte[] encoded;
+	private String lastSerialized;
+
+	// Applies changes deferred by a lazy rotator, run before the cube is read as a whole.
+	private Runnable materializer = () -> {};
+
 	public CubeState(int size) {
-		this.size = size;
+		this(new ArrayStickerStorage(size));
+	}
+
+	public CubeState(StickerStorage storage) {
+		this.storage = storage;
+		this.size = storage.size();
+		this.dirtyRows = new DirtyRows(CUBE_SIDES * size);
 		sideStates = new CubeSideState[CUBE_SIDES];
 		for (int i = 0; i < CUBE_SIDES; ++i) {
-			sideStates[i] = new CubeSideState(i, size);
+			sideStates[i] = new CubeSideState(storage, i, dirtyRows);
 		}
 	}
 
+	/**
+	 * Sets the action that brings the stickers up to date before the cube is read as a whole,
+	 * see {@link concurrentcube.rotation.LazyCubeRotator}.
+	 * Must be set before the state is shared with other threads.
+	 */
+	public void setMaterializer(Runnable materializer) {
+		this.materializer = materializer;
+	}
+
+	void materialize() {
+		materializer.run();
+	}
+
 	@Override
 	public String toString() {
+		checkFitsInString();
+		materialize();
 		StringBuilder serializedCube = new StringBuilder();
 		for (var side : sideStates) {
 			serializedCube.append(side.toString());
@@ -24,6 +66,154 @@ public class CubeState {
 		return serializedCube.toString();
 	}
 
+	/**
+	 * Serialises the cube like {@link #toString()}, re-encoding only the rows
+	 * changed since the previous call, and returns the previous string
+	 * if nothing has changed. Must not run concurrently with changes to the cube.
+	 * Inspectors admitted together therefore share one serialisation:
+	 * the first one encodes the changes, the others wait for it and get the same string.
+	 */
+	public String serialize() {
+		materialize();
+		synchronized (this) {
+			byte[] encodedCube = encode();
+			if (lastSerialized == null) {
+				lastSerialized = new String(encodedCube, StandardCharsets.ISO_8859_1);
+			}
+			return lastSerialized;
+		}
+	}
+
+	// Brings the encoded cube up to date. The array is not changed again
+	// until the cube is, so callers may read it after releasing the lock.
+	private byte[] encode() {
+		if (encoded != null && !dirtyRows.any()) {
+			return encoded;
+		}
+		if (encoded == null) {
+			checkFitsInString();
+			encoded = new byte[(int) stickerCount()];
+		}
+		dirtyRows.clearAny();
+		for (int row = 0; row < dirtyRows.size(); ++row) {
+			if (dirtyRows.clear(row)) {
+				CubeSideState side = sideStates[row / size];
+				int offset = row * size;
+				for (int column = 0; column < size; ++column) {
+					encoded[offset + column] = (byte) ('0' + side.getSquare(row % size, column));
+				}
+			}
+		}
+		lastSerialized = null;
+		return encoded;
+	}
+
+	/**
+	 * Writes the cube as {@link #toString()} shows it, without building a string.
+	 * Like {@link #serialize()}, must not run concurrently with changes to the cube.
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		char[] chunk = new char[(int) Math.min(CHUNK_LENGTH, stickerCount())];
+		CharBuffer chunkView = CharBuffer.wrap(chunk);
+		writeTo((bytes, offset, length) -> {
+			for (int start = 0; start < length; start += chunk.length) {
+				int chunkLength = Math.min(chunk.length, length - start);
+				for (int i = 0; i < chunkLength; ++i) {
+					chunk[i] = (char) bytes[offset + start + i];
+				}
+				out.append(chunkView, 0, chunkLength);
+			}
+		});
+	}
+
+	/**
+	 * Writes the cube as {@link #toString()} shows it, one Latin-1 byte per sticker.
+	 *
+	 * @throws BufferOverflowException if the buffer cannot hold the whole cube,
+	 * in which case nothing is written
+	 */
+	public void writeTo(ByteBuffer out) {
+		if (out.remaining() < stickerCount()) {
+			throw new BufferOverflowException();
+		}
+		materialize();
+		byte[] encodedCube;
+		synchronized (this) {
+			encodedCube = encode();
+		}
+		out.put(encodedCube);
+	}
+
+	/**
+	 * Writes the cube as {@link #toString()} shows it, one Latin-1 byte per sticker.
+	 */
+	public void writeTo(WritableByteChannel out) throws IOException {
+		writeTo((bytes, offset, length) -> {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+		});
+	}
+
+	private interface ByteSink {
+
+		void write(byte[] bytes, int offset, int length) throws IOException;
+	}
+
+	private void writeTo(ByteSink sink) throws IOException {
+		materialize();
+		if (stickerCount() <= MAX_ENCODED_LENGTH) {
+			byte[] encodedCube;
+			synchronized (this) {
+				encodedCube = encode();
+			}
+			sink.write(encodedCube, 0, encodedCube.length);
+			return;
+		}
+
+		// Too large to keep encoded, so encoded chunk by chunk.
+		byte[] chunk = new byte[CHUNK_LENGTH];
+		int length = 0;
+		for (var side : sideStates) {
+			for (int row = 0; row < size; ++row) {
+				for (int column = 0; column < size; ++column) {
+					if (length == chunk.length) {
+						sink.write(chunk, 0, length);
+						length = 0;
+					}
+					chunk[length++] = (byte) ('0' + side.getSquare(row, column));
+				}
+			}
+		}
+		sink.write(chunk, 0, length);
+	}
+
+	private long stickerCount() {
+		return (long) CUBE_SIDES * size * size;
+	}
+
+	private void checkFitsInString() {
+		if (stickerCount() > MAX_ENCODED_LENGTH) {
+			throw new IllegalStateException("Cube of size " + size
+					+ " is too large to be shown as a string, write it to a channel instead.");
+		}
+	}
+
+	/**
+	 * Records that the stickers in the cycles were changed
+	 * directly in the storage, bypassing this state.
+	 */
+	public void markDirty(int[] cycles) {
+		for (int index : cycles) {
+			dirtyRows.mark((index < 0 ? ~index : index) / size);
+		}
+	}
+
+	public void markSideDirty(int side) {
+		sideStates[side].markDirty();
+	}
+
 	public int[] getRow(SideType side, int rowNumber) {
 		return sideStates[side.ordinal()].getRow(rowNumber);
 	}
@@ -40,9 +230,105 @@ public class CubeState {
 		sideStates[side.ordinal()].setColumn(newColumn, columnNumber);
 	}
 
+	public int getSquare(SideType side, int rowNumber, int columnNumber) {
+		return sideStates[side.ordinal()].getSquare(rowNumber, columnNumber);
+	}
+
+	public void setSquare(SideType side, int rowNumber, int columnNumber, int color) {
+		sideStates[side.ordinal()].setSquare(rowNumber, columnNumber, color);
+	}
+
+	public void rotateSideClockwise(SideType side) {
+		sideStates[side.ordinal()].rotateClockwise();
+	}
+
+	public void rotateSideCounterClockwise(SideType side) {
+		sideStates[side.ordinal()].rotateCounterClockwise();
+	}
+
+	/**
+	 * Applies cycles of sticker indices in the format of {@link StickerStorage#permute},
+	 * indices being taken in the orientation the cube is shown in.
+	 */
+	public void permute(int[] cycles) {
+		boolean turned = false;
+		for (var side : sideStates) {
+			turned |= side.isTurned();
+		}
+		if (!turned) {
+			storage.permute(cycles);
+			markDirty(cycles);
+			return;
+		}
+
+		int sideLength = size * size;
+		int i = 0;
+		while (i < cycles.length) {
+			int first = cycles[i];
+			int saved = getSquare(first / sideLength, first % sideLength);
+			int to = first;
+			int from;
+			do {
+				from = cycles[++i];
+				int source = from < 0 ? ~from : from;
+				setSquare(to / sideLength, to % sideLength, getSquare(source / sideLength, source % sideLength));
+				to = source;
+			} while (from >= 0);
+			setSquare(to / sideLength, to % sideLength, saved);
+			++i;
+		}
+	}
+
+	private int getSquare(int side, int square) {
+		return sideStates[side].getSquare(square / size, square % size);
+	}
+
+	private void setSquare(int side, int square, int color) {
+		sideStates[side].setSquare(square / size, square % size, color);
+	}
+
+	/**
+	 * Freezes the current state, to be written out while the cube goes on changing.
+	 * A {@link CopyOnWriteStickerStorage} only starts saving rows before they are changed;
+	 * other storages are copied right away. Must not run concurrently with changes to the cube.
+	 */
+	public FrozenCube freeze() {
+		materialize();
+		int[] orientations = new int[CUBE_SIDES];
+		for (int side = 0; side < CUBE_SIDES; ++side) {
+			orientations[side] = sideStates[side].orientation();
+		}
+		if (storage instanceof CopyOnWriteStickerStorage) {
+			return new FrozenCube(size, orientations, ((CopyOnWriteStickerStorage) storage).freeze());
+		}
+		return FrozenCube.copy(size, orientations, storage);
+	}
+
+	/**
+	 * Sets every sticker to the one shown at the same place of other,
+	 * a cube of the same size, whatever the storage of either.
+	 */
+	public void copyFrom(CubeState other) {
+		if (other.size != size) {
+			throw new IllegalArgumentException("Cube of size " + other.size
+					+ " copied to cube of size " + size + ".");
+		}
+		for (int side = 0; side < CUBE_SIDES; ++side) {
+			for (int row = 0; row < size; ++row) {
+				for (int column = 0; column < size; ++column) {
+					sideStates[side].setSquare(row, column, other.sideStates[side].getSquare(row, column));
+				}
+			}
+		}
+	}
+
 	public int size() {
 		return size;
 	}
 
+	StickerStorage storage() {
+		return storage;
+	}
+
 
 }
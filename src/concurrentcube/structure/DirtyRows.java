@@ -0,0 +1,61 @@
+package concurrentcube.structure;
+
+import java.util.Arrays;
+
+/**
+ * Rows of the cube changed since they were last serialised,
+ * indexed by side * size + row.
+ *
+ * Rotators set flags without synchronisation; flags are only read and cleared
+ * while no rotator works on the cube, after admission has ordered the writes.
+ * A flag is checked before it is set, so rotators setting the same flags
+ * do not keep invalidating each other's cache lines.
+ */
+class DirtyRows {
+
+	private final boolean[] rows;
+	private boolean any;
+
+	DirtyRows(int rowCount) {
+		rows = new boolean[rowCount];
+		Arrays.fill(rows, true);
+		any = true;
+	}
+
+	void mark(int row) {
+		if (!rows[row]) {
+			rows[row] = true;
+		}
+		if (!any) {
+			any = true;
+		}
+	}
+
+	void mark(int fromRow, int toRow) {
+		for (int row = fromRow; row < toRow; ++row) {
+			mark(row);
+		}
+	}
+
+	boolean any() {
+		return any;
+	}
+
+	int size() {
+		return rows.length;
+	}
+
+	/**
+	 * Clears the flag of the row, returning whether it was set.
+	 */
+	boolean clear(int row) {
+		boolean dirty = rows[row];
+		rows[row] = false;
+		return dirty;
+	}
+
+	void clearAny() {
+		any = false;
+	}
+
+}
@@ -0,0 +1,82 @@
+package concurrentcube.structure;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A state of a cube frozen by {@link CubeState#freeze()},
+ * which can be written out while the cube goes on changing.
+ */
+public class FrozenCube {
+
+	private static final int CUBE_SIDES = 6;
+
+	/**
+	 * Physical rows of the frozen stickers, each read once.
+	 */
+	interface Rows {
+
+		void read(int side, int row, byte[] into);
+
+		void release();
+	}
+
+	private final int size;
+	private final int[] orientations;
+	private final Rows rows;
+
+	FrozenCube(int size, int[] orientations, Rows rows) {
+		this.size = size;
+		this.orientations = orientations;
+		this.rows = rows;
+	}
+
+	/**
+	 * Freezes a storage that is not copy-on-write by copying it.
+	 */
+	static FrozenCube copy(int size, int[] orientations, StickerStorage storage) {
+		byte[][] copied = new byte[CUBE_SIDES * size][size];
+		for (int side = 0; side < CUBE_SIDES; ++side) {
+			for (int row = 0; row < size; ++row) {
+				for (int column = 0; column < size; ++column) {
+					copied[side * size + row][column] = (byte) storage.get(side, row, column);
+				}
+			}
+		}
+		return new FrozenCube(size, orientations, new Rows() {
+
+			@Override
+			public void read(int side, int row, byte[] into) {
+				System.arraycopy(copied[side * size + row], 0, into, 0, size);
+			}
+
+			@Override
+			public void release() {
+			}
+		});
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Writes the frozen state to out in the encoding of {@link CubeCodec}
+	 * and releases it. Can be called once.
+	 */
+	public void writeTo(WritableByteChannel out) throws IOException {
+		try {
+			CubeCodec.encode(size, orientations, rows, out);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Stops keeping the frozen state, e.g. if it is not going to be written.
+	 */
+	public void release() {
+		rows.release();
+	}
+
+}
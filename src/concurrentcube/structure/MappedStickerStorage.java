@@ -0,0 +1,192 @@
+package concurrentcube.structure;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps stickers in a memory-mapped file, one byte per sticker,
+ * in the tiled layout of {@link OffHeapStickerStorage}, so that the state
+ * lives in the page cache and reopening the file restores the cube without parsing.
+ * Orientations of the sides are kept in the file too.
+ *
+ * The file starts with a page-sized header: magic, format version, size,
+ * the orientations, a clean flag and a sequence number. {@link #markClean}
+ * records that the file, forced with {@link #force}, holds a consistent state;
+ * the first change after that clears the flag on disk before anything else is written,
+ * so a file found clean after a crash is the state it was marked clean with.
+ */
+public class MappedStickerStorage implements StickerStorage {
+
+	private static final int CUBE_SIDES = 6;
+
+	private static final int MAGIC = 0x43554245;
+	private static final byte VERSION = 1;
+	private static final int HEADER_BYTES = 4096;
+	private static final int SIZE_OFFSET = 5;
+	private static final int ORIENTATIONS_OFFSET = 9;
+	private static final int CLEAN_OFFSET = ORIENTATIONS_OFFSET + CUBE_SIDES;
+	private static final int SEQUENCE_OFFSET = 16;
+
+	private static final int TILE_SHIFT = 6;
+	private static final int TILE = 1 << TILE_SHIFT;
+	private static final int TILE_MASK = TILE - 1;
+
+	private static final int CHUNK_SHIFT = 30;
+	private static final long CHUNK = 1L << CHUNK_SHIFT;
+	private static final long CHUNK_MASK = CHUNK - 1;
+
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] chunks;
+	private final int size;
+	private final int tilesPerRow;
+	private final long tilesPerSide;
+
+	// Whether the header on disk says the file is clean.
+	private volatile boolean clean;
+
+	private MappedStickerStorage(FileChannel file, int size, boolean created) throws IOException {
+		this.size = size;
+		tilesPerRow = (size + TILE_MASK) >> TILE_SHIFT;
+		tilesPerSide = (long) tilesPerRow * tilesPerRow;
+
+		long capacity = CUBE_SIDES * tilesPerSide * TILE * TILE;
+		header = file.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+		chunks = new MappedByteBuffer[(int) ((capacity + CHUNK_MASK) >> CHUNK_SHIFT)];
+		for (int i = 0; i < chunks.length; ++i) {
+			chunks[i] = file.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + i * CHUNK,
+					Math.min(CHUNK, capacity - i * CHUNK));
+		}
+
+		if (created) {
+			header.putInt(0, MAGIC).put(4, VERSION).putInt(SIZE_OFFSET, size);
+			// A new file is zeroed, which already is the colour of side 0.
+			fillSolved(1);
+			force();
+			markClean(0);
+		} else {
+			if (header.getInt(0) != MAGIC || header.get(4) != VERSION) {
+				throw new IOException("Not a cube file of version " + VERSION + ".");
+			}
+			if (header.getInt(SIZE_OFFSET) != size) {
+				throw new IllegalArgumentException("Cube file of size " + header.getInt(SIZE_OFFSET)
+						+ " opened as size " + size + ".");
+			}
+			clean = header.get(CLEAN_OFFSET) != 0;
+		}
+	}
+
+	/**
+	 * Maps the cube kept in the file, creating a solved one, marked clean
+	 * with sequence number 0, if the file does not exist.
+	 */
+	public static MappedStickerStorage open(Path path, int size) throws IOException {
+		boolean created = !Files.exists(path);
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// Mappings stay valid after the channel is closed.
+			return new MappedStickerStorage(file, size, created);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int get(int side, int row, int column) {
+		long offset = offset(side, row, column);
+		return chunks[(int) (offset >>> CHUNK_SHIFT)].get((int) (offset & CHUNK_MASK));
+	}
+
+	@Override
+	public void set(int side, int row, int column, int color) {
+		if (clean) {
+			markDirty();
+		}
+		long offset = offset(side, row, column);
+		chunks[(int) (offset >>> CHUNK_SHIFT)].put((int) (offset & CHUNK_MASK), (byte) color);
+	}
+
+	@Override
+	public int orientation(int side) {
+		return header.get(ORIENTATIONS_OFFSET + side);
+	}
+
+	@Override
+	public void setOrientation(int side, int orientation) {
+		if (clean) {
+			markDirty();
+		}
+		header.put(ORIENTATIONS_OFFSET + side, (byte) orientation);
+	}
+
+	/**
+	 * Writes the stickers changed since they were last forced back to the file (msync).
+	 * Changes made meanwhile may or may not be written.
+	 */
+	public void force() {
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+		header.force();
+	}
+
+	/**
+	 * Records on disk that the file holds a consistent state, the one identified
+	 * by sequence. Must be called after {@link #force()} with no changes in between.
+	 */
+	public synchronized void markClean(long sequence) {
+		header.putLong(SEQUENCE_OFFSET, sequence).put(CLEAN_OFFSET, (byte) 1);
+		header.force();
+		clean = true;
+	}
+
+	public boolean isClean() {
+		return clean;
+	}
+
+	/**
+	 * Sequence number the file was last marked clean with.
+	 */
+	public long cleanSequence() {
+		return header.getLong(SEQUENCE_OFFSET);
+	}
+
+	/**
+	 * Makes the cube solved again, e.g. before rebuilding a state that was not kept clean.
+	 * Orientations are kept, a solved side looks the same in any.
+	 */
+	public void reset() {
+		fillSolved(0);
+	}
+
+	// The header must be dirty on disk before any other page can be.
+	private synchronized void markDirty() {
+		if (clean) {
+			header.put(CLEAN_OFFSET, (byte) 0);
+			header.force();
+			clean = false;
+		}
+	}
+
+	private void fillSolved(int fromSide) {
+		for (int side = fromSide; side < CUBE_SIDES; ++side) {
+			for (int row = 0; row < size; ++row) {
+				for (int column = 0; column < size; ++column) {
+					set(side, row, column, side);
+				}
+			}
+		}
+	}
+
+	private long offset(int side, int row, int column) {
+		long tile = side * tilesPerSide + (long) (row >> TILE_SHIFT) * tilesPerRow + (column >> TILE_SHIFT);
+		return (tile << (2 * TILE_SHIFT)) + ((row & TILE_MASK) << TILE_SHIFT) + (column & TILE_MASK);
+	}
+
+}
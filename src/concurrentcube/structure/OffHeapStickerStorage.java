@@ -0,0 +1,74 @@
+package concurrentcube.structure;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps stickers outside of the heap, one byte per sticker,
+ * so that cubes with more than 2^31 stickers can be represented.
+ *
+ * Every side is split into TILE x TILE tiles stored contiguously,
+ * so walking a row or a column stays within a few pages.
+ * Memory is allocated as direct buffers of CHUNK bytes;
+ * CHUNK is a multiple of the tile length, so no tile spans two buffers.
+ */
+public class OffHeapStickerStorage implements StickerStorage {
+
+	private static final int CUBE_SIDES = 6;
+
+	private static final int TILE_SHIFT = 6;
+	private static final int TILE = 1 << TILE_SHIFT;
+	private static final int TILE_MASK = TILE - 1;
+
+	private static final int CHUNK_SHIFT = 30;
+	private static final long CHUNK = 1L << CHUNK_SHIFT;
+	private static final long CHUNK_MASK = CHUNK - 1;
+
+	private final ByteBuffer[] chunks;
+	private final int size;
+	private final int tilesPerRow;
+	private final long tilesPerSide;
+
+	public OffHeapStickerStorage(int size) {
+		this.size = size;
+		tilesPerRow = (size + TILE_MASK) >> TILE_SHIFT;
+		tilesPerSide = (long) tilesPerRow * tilesPerRow;
+
+		long capacity = CUBE_SIDES * tilesPerSide * TILE * TILE;
+		chunks = new ByteBuffer[(int) ((capacity + CHUNK_MASK) >> CHUNK_SHIFT)];
+		for (int i = 0; i < chunks.length; ++i) {
+			chunks[i] = ByteBuffer.allocateDirect((int) Math.min(CHUNK, capacity - i * CHUNK));
+		}
+
+		// Direct buffers are zeroed, which already is the colour of side 0.
+		for (int side = 1; side < CUBE_SIDES; ++side) {
+			for (int row = 0; row < size; ++row) {
+				for (int column = 0; column < size; ++column) {
+					set(side, row, column, side);
+				}
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int get(int side, int row, int column) {
+		long offset = offset(side, row, column);
+		return chunks[(int) (offset >>> CHUNK_SHIFT)].get((int) (offset & CHUNK_MASK));
+	}
+
+	@Override
+	public void set(int side, int row, int column, int color) {
+		long offset = offset(side, row, column);
+		chunks[(int) (offset >>> CHUNK_SHIFT)].put((int) (offset & CHUNK_MASK), (byte) color);
+	}
+
+	private long offset(int side, int row, int column) {
+		long tile = side * tilesPerSide + (long) (row >> TILE_SHIFT) * tilesPerRow + (column >> TILE_SHIFT);
+		return (tile << (2 * TILE_SHIFT)) + ((row & TILE_MASK) << TILE_SHIFT) + (column & TILE_MASK);
+	}
+
+}
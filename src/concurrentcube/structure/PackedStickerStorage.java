@@ -0,0 +1,75 @@
+package concurrentcube.structure;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps every side of a small cube in a single long,
+ * BITS_PER_STICKER bits per sticker, row by row from the lowest bits.
+ *
+ * Same-axis rotators may update different stickers of one side
+ * at the same time, so every write is a compare-and-set
+ * that replaces only the written bits.
+ */
+public class PackedStickerStorage implements StickerStorage {
+
+	public static final int MAX_SIZE = 3;
+
+	public static final int BITS_PER_STICKER = 3;
+
+	private static final int CUBE_SIDES = 6;
+
+	private static final long STICKER_MASK = (1L << BITS_PER_STICKER) - 1;
+
+	private final AtomicLongArray sides = new AtomicLongArray(CUBE_SIDES);
+	private final int size;
+
+	public PackedStickerStorage(int size) {
+		if (size < 1 || size > MAX_SIZE) {
+			throw new IllegalArgumentException("Packed storage supports sizes up to " + MAX_SIZE + ".");
+		}
+		this.size = size;
+		for (int side = 0; side < CUBE_SIDES; ++side) {
+			long word = 0;
+			for (int i = 0; i < size * size; ++i) {
+				word |= (long) side << (i * BITS_PER_STICKER);
+			}
+			sides.set(side, word);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int get(int side, int row, int column) {
+		return (int) ((sides.get(side) >>> shift(row, column)) & STICKER_MASK);
+	}
+
+	@Override
+	public void set(int side, int row, int column, int color) {
+		int shift = shift(row, column);
+		replace(side, STICKER_MASK << shift, (long) color << shift);
+	}
+
+	public long getSide(int side) {
+		return sides.get(side);
+	}
+
+	/**
+	 * Replaces the bits of the side selected by mask with bits,
+	 * leaving all other bits as they are.
+	 */
+	public void replace(int side, long mask, long bits) {
+		long word;
+		do {
+			word = sides.get(side);
+		} while (!sides.compareAndSet(side, word, (word & ~mask) | bits));
+	}
+
+	private int shift(int row, int column) {
+		return (row * size + column) * BITS_PER_STICKER;
+	}
+
+}
@@ -0,0 +1,56 @@
+package concurrentcube.structure;
+
+/**
+ * Physical storage of the stickers of all six sides.
+ * Coordinates are physical, i.e. before applying
+ * the orientation of a side.
+ * A new storage holds a solved cube.
+ */
+public interface StickerStorage {
+
+	int size();
+
+	int get(int side, int row, int column);
+
+	void set(int side, int row, int column, int color);
+
+	/**
+	 * Orientation tag of a side, for storages that keep it
+	 * with the stickers, see {@link CubeSideState}.
+	 */
+	default int orientation(int side) {
+		return 0;
+	}
+
+	default void setOrientation(int side, int orientation) {
+	}
+
+	/**
+	 * Applies cycles of sticker indices.
+	 * Sticker (side, row, column) has index side * size * size + row * size + column.
+	 * Each cycle lists its indices in order with the last one complemented (~index);
+	 * for a cycle (a, b, c, ~d) the sticker at b moves to a,
+	 * c to b, d to c and a to d.
+	 */
+	default void permute(int[] cycles) {
+		int size = size();
+		int sideLength = size * size;
+		int i = 0;
+		while (i < cycles.length) {
+			int first = cycles[i];
+			int saved = get(first / sideLength, (first % sideLength) / size, first % size);
+			int to = first;
+			int from;
+			do {
+				from = cycles[++i];
+				int source = from < 0 ? ~from : from;
+				set(to / sideLength, (to % sideLength) / size, to % size,
+						get(source / sideLength, (source % sideLength) / size, source % size));
+				to = source;
+			} while (from >= 0);
+			set(to / sideLength, (to % sideLength) / size, to % size, saved);
+			++i;
+		}
+	}
+
+}
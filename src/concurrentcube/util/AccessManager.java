@@ -1,38 +1,94 @@
 package concurrentcube.util;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import concurrentcube.rotation.RotatorType;
 
+/**
+ * Admits rotators of one axis at a time, or inspectors, to the cube.
+ *
+ * Who is working on the cube, and whether anyone waits, is kept in one atomic word.
+ * While nobody waits, entering and leaving is a single CAS on it.
+ * Threads that have to wait, and whoever frees the cube for them,
+ * go through the lock, which also holds the waiting counts.
+ * Whether a thread may join the working group ahead of waiters
+ * is decided by an {@link AdmissionPolicy}.
+ *
+ * Threads that change the stickers also bump a version,
+ * against which inspectors can validate reads made without admission.
+ */
 public class AccessManager {
 
+	private static final RotatorType[] AXES = RotatorType.values();
+
+	// state: working rotators | working inspectors | working axis + 1 | waiters present
+	private static final int COUNT_BITS = 24;
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+	private static final int INSPECTORS_SHIFT = COUNT_BITS;
+	private static final int AXIS_SHIFT = 2 * COUNT_BITS;
+	private static final long AXIS_MASK = 3L << AXIS_SHIFT;
+	private static final long WAITERS = 1L << (AXIS_SHIFT + 2);
+	private static final long ONE_ROTATOR = 1L;
+	private static final long ONE_INSPECTOR = 1L << INSPECTORS_SHIFT;
+
+	private final AtomicLong state = new AtomicLong();
+
+	// writes: version | threads that may be changing the stickers.
+	// Both entry and exit of such a thread bump the version.
+	private static final long ONE_WRITER = 1L;
+	private static final long ONE_VERSION = 1L << COUNT_BITS;
+	private final AtomicLong writes = new AtomicLong(ONE_VERSION);
+
 	private final Lock lock = new ReentrantLock(true);
 
-	private final Condition isCubeAvailable = lock.newCondition();
+	// Waiters of each group sleep on their own condition,
+	// so freeing the cube wakes only the group admitted next.
+	private final Condition[] isAxisAvailable = new Condition[AXES.length];
+	private final Condition isInspectionAvailable = lock.newCondition();
+
+	// The group woken last, used to admit waiting groups in turns:
+	// inspectors after rotators, and axes round robin.
+	private boolean inspectorsWokenLast;
+	private int lastWokenAxis;
 
+	// Guarded by lock.
 	private int waitingRotatorsTotalCount;
-	private final Map<RotatorType, Integer> waitingRotatorCounts;
+	private final int[] waitingRotatorCounts = new int[AXES.length];
+	private int waitingInspectorsCount;
 
-	private int workingRotatorsCount;
-	private RotatorType workingRotatorType;
+	private final AdmissionPolicy admissionPolicy;
 
-	private int waitingInspectorsCount;
-	private int workingInspectorsCount;
+	// Run by the last working rotator or exclusive worker leaving the cube, after waiters are woken.
+	private Runnable quiescenceListener;
+	// Threads that joined ahead of the waiters since the first of them started waiting
+	// or a waiting group was last woken, whichever is later. Guarded by lock.
+	private int joinedAhead;
+	private long waitingSinceNanos;
 
 	private final Lock[] rotationLayersLocks;
 
+	// Taken for reading by inspectors and for writing by exclusive workers,
+	// which are admitted like inspectors and then exclude each other and them.
+	private final ReadWriteLock exclusiveLock = new ReentrantReadWriteLock();
+
 	private final int size;
 
 	public AccessManager(int size) {
+		this(size, AdmissionPolicy.fifo());
+	}
+
+	public AccessManager(int size, AdmissionPolicy admissionPolicy) {
 		this.size = size;
-		this.waitingRotatorCounts = new HashMap<>();
+		this.admissionPolicy = admissionPolicy;
 
-		for (var rotatorType : RotatorType.values()) {
-			waitingRotatorCounts.put(rotatorType, 0);
+		for (int axis = 0; axis < AXES.length; ++axis) {
+			isAxisAvailable[axis] = lock.newCondition();
 		}
 
 		rotationLayersLocks = new ReentrantLock[size];
@@ -44,26 +100,41 @@ public class AccessManager {
 	// ---------- CUBE ROTATION ------------
 
 	public void onRotatorEntry(int side, int layer) throws InterruptedException {
+		enterRotation(RotatorType.get(side));
+		onBeforeRotation(side, layer);
+	}
+
+	private void enterRotation(RotatorType rotator) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException("Rotator " + Thread.currentThread().getName() + "interrupted.");
+		}
+		long current = state.get();
+		if (canRotateWithoutWaiting(current, rotator) && state.compareAndSet(current, admitRotator(current, rotator))) {
+			startWriting();
+			return;
+		}
+
 		lock.lockInterruptibly();
-		RotatorType rotator = RotatorType.get(side);
 		addWaitingRotatorInfo(rotator);
+		boolean admitted = false;
 		try {
 			if (shouldRotatorWait(rotator)) {
 				// If thread should not enter the cube right now,
 				// it is supposed to wait
-				// until being notified that cube is unoccupied.
+				// until its group is woken up.
 				waitBeforeRotationAccess(rotator);
 			}
 			addWorkingRotatorInfo(rotator);
-		} catch (InterruptedException e) {
-			notifyAllIfCubeIsUnoccupied();
-			throw e;
+			startWriting();
+			admitted = true;
 		} finally {
 			removeWaitingRotatorInfo(rotator);
+			if (!admitted) {
+				// The group may have been woken for this thread only.
+				signalNextGroupIfCubeIsUnoccupied();
+			}
 			lock.unlock();
 		}
-
-		onBeforeRotation(side, layer);
 	}
 
 	private void onBeforeRotation(int side, int layer) throws InterruptedException {
@@ -81,42 +152,180 @@ public class AccessManager {
 	}
 
 	public void onRotatorExit() throws InterruptedException {
-		lock.lock();
-		removeWorkingRotatorInfo();
-		notifyAllIfCubeIsUnoccupied();
-		lock.unlock();
+		stopWriting();
+		long left = state.updateAndGet(AccessManager::releaseRotator);
+		if (isUnoccupied(left) && (left & WAITERS) != 0) {
+			lock.lock();
+			signalNextGroupIfCubeIsUnoccupied();
+			lock.unlock();
+		}
+		if (workingRotators(left) == 0 && quiescenceListener != null) {
+			quiescenceListener.run();
+		}
 		if (Thread.interrupted()) {
 			throw new InterruptedException("Rotator " + Thread.currentThread().getName() + "interrupted.");
 		}
 	}
 
+	/**
+	 * Sets the action run whenever the last working rotator or an exclusive worker
+	 * leaves the cube, once the threads waiting for it have been woken,
+	 * so it should only hand work off. Must be set before the manager is shared with other threads.
+	 */
+	public void setQuiescenceListener(Runnable quiescenceListener) {
+		this.quiescenceListener = quiescenceListener;
+	}
+
+	// ---------- BATCH ROTATION ------------
+
+	/**
+	 * Admits a whole batch of rotations of the given type as one rotator.
+	 * Rotations of the batch take their layers with {@link #lockLayer}.
+	 */
+	public void onBatchEntry(RotatorType rotator) throws InterruptedException {
+		enterRotation(rotator);
+	}
+
+	public void onBatchExit() throws InterruptedException {
+		onRotatorExit();
+	}
+
+	// ---------- COMBINING ROTATION ------------
+
+	/**
+	 * Admits a rotation that takes its layer itself with {@link #lockLayerInterruptibly}
+	 * or {@link #lockLayer}, so that it can combine rotations queued on the layer.
+	 */
+	public void onCombiningEntry(int side) throws InterruptedException {
+		enterRotation(RotatorType.get(side));
+	}
+
+	public void onCombiningExit() throws InterruptedException {
+		onRotatorExit();
+	}
+
+	public void lockLayerInterruptibly(int side, int layer) throws InterruptedException {
+		getRotationLayerLock(side, layer).lockInterruptibly();
+	}
+
+	public void lockLayer(int side, int layer) {
+		getRotationLayerLock(side, layer).lock();
+	}
+
+	public void unlockLayer(int side, int layer) {
+		getRotationLayerLock(side, layer).unlock();
+	}
+
+	/**
+	 * Rotations with the same layer index collide and are never run concurrently.
+	 */
+	public int getLayerIndex(int side, int layer) {
+		if (side == 0 || side == 1 || side == 2) {
+			return layer;
+		} else {
+			return size - 1 - layer;
+		}
+	}
+
 	// -------- CUBE INSPECTION ---------
 
 	public void onInspectorEntry() throws InterruptedException {
+		enterInspection();
+		exclusiveLock.readLock().lock();
+	}
+
+	public void onInspectorExit() throws InterruptedException {
+		exclusiveLock.readLock().unlock();
+		leaveInspection();
+	}
+
+	// -------- OPTIMISTIC INSPECTION ---------
+
+	/**
+	 * Returns a stamp for reading the cube without admission,
+	 * or 0 if someone may be changing it right now.
+	 */
+	public long tryOptimisticRead() {
+		long current = writes.get();
+		return (current & COUNT_MASK) == 0 ? current : 0;
+	}
+
+	/**
+	 * Whether nobody has changed the cube since the stamp was taken,
+	 * so that reads made meanwhile saw a consistent state.
+	 */
+	public boolean validate(long stamp) {
+		VarHandle.acquireFence();
+		return stamp != 0 && writes.get() == stamp;
+	}
+
+	// -------- DEFERRED CHANGES ---------
+
+	/**
+	 * Brackets changes deferred by rotators and applied later, possibly
+	 * by a thread not admitted to the cube, so that optimistic reads they overlap fail validation.
+	 */
+	public void onDeferredWriteEntry() {
+		startWriting();
+	}
+
+	public void onDeferredWriteExit() {
+		stopWriting();
+	}
+
+	// -------- EXCLUSIVE ACCESS ---------
+
+	public void onExclusiveEntry() throws InterruptedException {
+		enterInspection();
+		exclusiveLock.writeLock().lock();
+		startWriting();
+	}
+
+	public void onExclusiveExit() throws InterruptedException {
+		stopWriting();
+		exclusiveLock.writeLock().unlock();
+		leaveInspection();
+		if (quiescenceListener != null) {
+			quiescenceListener.run();
+		}
+	}
+
+	private void enterInspection() throws InterruptedException {
+		long current = state.get();
+		if ((current & (WAITERS | COUNT_MASK)) == 0 && state.compareAndSet(current, current + ONE_INSPECTOR)) {
+			return;
+		}
+
 		lock.lock();
 		++waitingInspectorsCount;
+		updateWaiters();
+		boolean admitted = false;
 		try {
 			if (shouldInspectorWait()) {
 				// If thread should not enter the cube right now,
 				// it is supposed to wait
-				// until being notified that cube is unoccupied.
+				// until inspectors are woken up.
 				waitBeforeInspectionAccess();
 			}
-			++workingInspectorsCount;
-		} catch (InterruptedException e) {
-			notifyAllIfCubeIsUnoccupied();
-			throw e;
+			state.addAndGet(ONE_INSPECTOR);
+			admitted = true;
 		} finally {
 			--waitingInspectorsCount;
+			updateWaiters();
+			if (!admitted) {
+				signalNextGroupIfCubeIsUnoccupied();
+			}
 			lock.unlock();
 		}
 	}
 
-	public void onInspectorExit() throws InterruptedException {
-		lock.lock();
-		--workingInspectorsCount;
-		notifyAllIfCubeIsUnoccupied();
-		lock.unlock();
+	private void leaveInspection() throws InterruptedException {
+		long left = state.addAndGet(-ONE_INSPECTOR);
+		if (isUnoccupied(left) && (left & WAITERS) != 0) {
+			lock.lock();
+			signalNextGroupIfCubeIsUnoccupied();
+			lock.unlock();
+		}
 
 		if (Thread.interrupted()) {
 			throw new InterruptedException("Inspector " + Thread.currentThread().getName() + "interrupted.");
@@ -125,14 +334,88 @@ public class AccessManager {
 
 	// ------ helper methods ------
 
+	private static int workingRotators(long state) {
+		return (int) (state & COUNT_MASK);
+	}
+
+	private static int workingInspectors(long state) {
+		return (int) ((state >>> INSPECTORS_SHIFT) & COUNT_MASK);
+	}
+
+	private static boolean isUnoccupied(long state) {
+		return workingRotators(state) == 0 && workingInspectors(state) == 0;
+	}
+
+	// Whether a rotator of the given type would collide with working threads.
+	private static boolean isCollidingWithWorking(long state, RotatorType rotatorType) {
+		long axis = state & AXIS_MASK;
+		return workingInspectors(state) > 0
+				|| (axis != 0 && axis != axisBits(rotatorType));
+	}
+
+	private static boolean canRotateWithoutWaiting(long state, RotatorType rotatorType) {
+		return (state & WAITERS) == 0 && !isCollidingWithWorking(state, rotatorType);
+	}
+
+	private static long axisBits(RotatorType rotatorType) {
+		return (rotatorType.ordinal() + 1L) << AXIS_SHIFT;
+	}
+
+	private static long admitRotator(long state, RotatorType rotatorType) {
+		return ((state & ~AXIS_MASK) | axisBits(rotatorType)) + ONE_ROTATOR;
+	}
+
+	private static long releaseRotator(long state) {
+		long left = state - ONE_ROTATOR;
+		if (workingRotators(left) == 0) {
+			// the last working rotator
+			left &= ~AXIS_MASK;
+		}
+		return left;
+	}
+
+	private void startWriting() {
+		writes.addAndGet(ONE_VERSION + ONE_WRITER);
+	}
+
+	private void stopWriting() {
+		writes.addAndGet(ONE_VERSION - ONE_WRITER);
+	}
+
+	// Publishes whether anyone waits, which turns off the lock-free paths.
+	/**
+	 * Number of threads waiting to be admitted, e.g. for tests
+	 * to tell that a thread has queued behind the working ones.
+	 */
+	public int waitingCount() {
+		lock.lock();
+		try {
+			return waitingRotatorsTotalCount + waitingInspectorsCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void updateWaiters() {
+		boolean waiting = waitingRotatorsTotalCount > 0 || waitingInspectorsCount > 0;
+		long current;
+		do {
+			current = state.get();
+		} while (!state.compareAndSet(current, waiting ? current | WAITERS : current & ~WAITERS));
+		if (waiting && (current & WAITERS) == 0) {
+			startCountingJoins();
+		}
+	}
+
 	private void addWaitingRotatorInfo(RotatorType rotatorType) {
-		waitingRotatorCounts.merge(rotatorType, 1, Integer::sum);
+		++waitingRotatorCounts[rotatorType.ordinal()];
 		++waitingRotatorsTotalCount;
+		updateWaiters();
 	}
 
 	private boolean areOtherRotatorTypesWaiting(RotatorType rotatorType) {
-		for (RotatorType rotator : waitingRotatorCounts.keySet()) {
-			if (rotator != rotatorType && waitingRotatorCounts.get(rotator) > 0) {
+		for (int axis = 0; axis < AXES.length; ++axis) {
+			if (axis != rotatorType.ordinal() && waitingRotatorCounts[axis] > 0) {
 				return true;
 			}
 		}
@@ -144,58 +427,93 @@ public class AccessManager {
 		// or wants to inspect it
 		// or working threads are rotating the cube in colliding way
 		// or there are colliding waiting rotators.
-		return workingInspectorsCount > 0
-				|| waitingInspectorsCount > 0
-				|| (workingRotatorType != null && workingRotatorType != rotatorType)
-				|| areOtherRotatorTypesWaiting(rotatorType);
+		long current = state.get();
+		if (isCollidingWithWorking(current, rotatorType)) {
+			return true;
+		}
+		if (waitingInspectorsCount == 0 && !areOtherRotatorTypesWaiting(rotatorType)) {
+			return false;
+		}
+		// Others wait, so it may only join its working axis if the policy allows.
+		if (workingRotators(current) > 0
+				&& admissionPolicy.mayRotatorJoin(joinedAhead, System.nanoTime() - waitingSinceNanos)) {
+			++joinedAhead;
+			return false;
+		}
+		return true;
+	}
+
+	private void startCountingJoins() {
+		joinedAhead = 0;
+		waitingSinceNanos = System.nanoTime();
 	}
 
 	private void waitBeforeRotationAccess(RotatorType rotator) throws InterruptedException {
 		do {
-			isCubeAvailable.await();
-		} while (workingInspectorsCount > 0 || (workingRotatorType != null && workingRotatorType != rotator));
+			isAxisAvailable[rotator.ordinal()].await();
+		} while (isCollidingWithWorking(state.get(), rotator));
 	}
 
 	private void removeWaitingRotatorInfo(RotatorType rotatorType) {
-		waitingRotatorCounts.merge(rotatorType, -1, Integer::sum);
+		--waitingRotatorCounts[rotatorType.ordinal()];
 		--waitingRotatorsTotalCount;
+		updateWaiters();
 	}
 
-	public void addWorkingRotatorInfo(RotatorType rotatorType) {
-		++workingRotatorsCount;
-		workingRotatorType = rotatorType;
+	private void addWorkingRotatorInfo(RotatorType rotatorType) {
+		// Only working threads may leave meanwhile, so admission stays valid.
+		state.updateAndGet(current -> admitRotator(current, rotatorType));
 	}
 
 	private Lock getRotationLayerLock(int side, int layer) {
-		if (side == 0 || side == 1 || side == 2) {
-			return rotationLayersLocks[layer];
-		} else {
-			return rotationLayersLocks[size - 1 - layer];
-		}
-	}
-
-	public void removeWorkingRotatorInfo() {
-		--workingRotatorsCount;
-		if (workingRotatorsCount == 0) {
-			// the last working rotator
-			workingRotatorType = null;
-		}
+		return rotationLayersLocks[getLayerIndex(side, layer)];
 	}
 
 	private boolean shouldInspectorWait() {
-		// Waits if someone is rotating or wants to rotate.
-		return workingRotatorsCount > 0 || waitingRotatorsTotalCount > 0;
+		// Waits if someone is rotating or wants to rotate,
+		// unless the policy lets it join working inspectors.
+		long current = state.get();
+		if (workingRotators(current) > 0) {
+			return true;
+		}
+		if (waitingRotatorsTotalCount == 0) {
+			return false;
+		}
+		if (workingInspectors(current) > 0
+				&& admissionPolicy.mayInspectorJoin(joinedAhead, System.nanoTime() - waitingSinceNanos)) {
+			++joinedAhead;
+			return false;
+		}
+		return true;
 	}
 
 	private void waitBeforeInspectionAccess() throws InterruptedException {
 		do {
-			isCubeAvailable.await();
-		} while (workingRotatorsCount > 0);
+			isInspectionAvailable.await();
+		} while (workingRotators(state.get()) > 0);
 	}
 
-	private void notifyAllIfCubeIsUnoccupied() {
-		if (workingRotatorsCount == 0 && workingInspectorsCount == 0) {
-			isCubeAvailable.signalAll();
+	private void signalNextGroupIfCubeIsUnoccupied() {
+		if (!isUnoccupied(state.get())) {
+			return;
+		}
+		// Inspectors go first unless they were woken last
+		// and rotators are waiting too, so neither side starves.
+		if (waitingInspectorsCount > 0 && (!inspectorsWokenLast || waitingRotatorsTotalCount == 0)) {
+			inspectorsWokenLast = true;
+			startCountingJoins();
+			isInspectionAvailable.signalAll();
+			return;
+		}
+		for (int i = 1; i <= AXES.length; ++i) {
+			int axis = (lastWokenAxis + i) % AXES.length;
+			if (waitingRotatorCounts[axis] > 0) {
+				inspectorsWokenLast = false;
+				lastWokenAxis = axis;
+				startCountingJoins();
+				isAxisAvailable[axis].signalAll();
+				return;
+			}
 		}
 	}
 
@@ -0,0 +1,49 @@
+package concurrentcube.util;
+
+/**
+ * Decides whether a thread may join the group working on the cube
+ * ahead of threads of other groups that already wait for it.
+ * Groups are the rotators of one axis and the inspectors.
+ *
+ * Without joining, waiting groups take turns as soon as the cube is free:
+ * inspectors after every rotation phase, axes round robin.
+ * A waiting inspector is then admitted after the current phase,
+ * a waiting rotator after at most five phases of other groups.
+ * A policy that lets threads join delays each of these phases
+ * by at most its bound on joins or on time.
+ */
+public interface AdmissionPolicy {
+
+	/**
+	 * @param joined threads that joined ahead of the waiters in this phase
+	 * @param waitingNanos time since the waiters have waited in this phase
+	 */
+	boolean mayRotatorJoin(int joined, long waitingNanos);
+
+	boolean mayInspectorJoin(int joined, long waitingNanos);
+
+	/**
+	 * Nobody joins ahead of a waiting thread,
+	 * so phases end as soon as someone waits for the cube.
+	 */
+	static AdmissionPolicy fifo() {
+		return BoundedAdmissionPolicy.FIFO;
+	}
+
+	/**
+	 * Keeps the working axis open to rotators of the same axis for up to
+	 * maxJoins rotators or maxMicros microseconds after someone starts waiting.
+	 */
+	static AdmissionPolicy throughput(int maxJoins, long maxMicros) {
+		return new BoundedAdmissionPolicy(maxJoins, maxMicros * 1000, 0, 0);
+	}
+
+	/**
+	 * Keeps an inspection phase open to inspectors for up to
+	 * maxJoins inspectors or maxMicros microseconds after a rotator starts waiting.
+	 */
+	static AdmissionPolicy readerBatching(int maxJoins, long maxMicros) {
+		return new BoundedAdmissionPolicy(0, 0, maxJoins, maxMicros * 1000);
+	}
+
+}
@@ -0,0 +1,42 @@
+package concurrentcube.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Default executor of asynchronous cube operations.
+ *
+ * Operations block while waiting for the cube, so every one of them
+ * gets its own thread: a virtual thread when the runtime has them (Java 21+),
+ * otherwise a pooled daemon platform thread.
+ */
+public class AsyncExecutors {
+
+	private static final ExecutorService DEFAULT = createDefault();
+
+	private AsyncExecutors() {
+	}
+
+	public static ExecutorService defaultExecutor() {
+		return DEFAULT;
+	}
+
+	public static boolean usesVirtualThreads() {
+		return !(DEFAULT instanceof ThreadPoolExecutor);
+	}
+
+	private static ExecutorService createDefault() {
+		try {
+			// Looked up reflectively, the code is compiled for Java 17.
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(task -> {
+				Thread thread = new Thread(task, "cube-async");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+}
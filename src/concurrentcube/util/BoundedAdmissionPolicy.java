@@ -0,0 +1,34 @@
+package concurrentcube.util;
+
+/**
+ * Lets threads join ahead of waiters until either
+ * the number of joins or the waiting time reaches its bound.
+ */
+class BoundedAdmissionPolicy implements AdmissionPolicy {
+
+	static final BoundedAdmissionPolicy FIFO = new BoundedAdmissionPolicy(0, 0, 0, 0);
+
+	private final int maxRotatorJoins;
+	private final long maxRotatorNanos;
+	private final int maxInspectorJoins;
+	private final long maxInspectorNanos;
+
+	BoundedAdmissionPolicy(int maxRotatorJoins, long maxRotatorNanos,
+			int maxInspectorJoins, long maxInspectorNanos) {
+		this.maxRotatorJoins = maxRotatorJoins;
+		this.maxRotatorNanos = maxRotatorNanos;
+		this.maxInspectorJoins = maxInspectorJoins;
+		this.maxInspectorNanos = maxInspectorNanos;
+	}
+
+	@Override
+	public boolean mayRotatorJoin(int joined, long waitingNanos) {
+		return joined < maxRotatorJoins && waitingNanos < maxRotatorNanos;
+	}
+
+	@Override
+	public boolean mayInspectorJoin(int joined, long waitingNanos) {
+		return joined < maxInspectorJoins && waitingNanos < maxInspectorNanos;
+	}
+
+}
@@ -0,0 +1,57 @@
+package concurrentcube.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * CompletableFuture of a task run on an executor,
+ * whose cancellation interrupts the thread running the task.
+ * Cube operations wait interruptibly, so cancelling a future
+ * releases its thread even while the operation waits for the cube.
+ */
+public class InterruptibleFuture<T> extends CompletableFuture<T> {
+
+	private Thread runner;
+
+	private InterruptibleFuture() {
+	}
+
+	public static <T> InterruptibleFuture<T> submit(Callable<T> task, Executor executor) {
+		InterruptibleFuture<T> future = new InterruptibleFuture<>();
+		executor.execute(() -> future.run(task));
+		return future;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		synchronized (this) {
+			if (cancelled && runner != null) {
+				runner.interrupt();
+			}
+		}
+		return cancelled;
+	}
+
+	private void run(Callable<T> task) {
+		synchronized (this) {
+			if (isDone()) {
+				return;
+			}
+			runner = Thread.currentThread();
+		}
+		try {
+			complete(task.call());
+		} catch (Throwable e) {
+			completeExceptionally(e);
+		} finally {
+			synchronized (this) {
+				runner = null;
+			}
+			// An interrupt from cancel must not leak into the executor's next task.
+			Thread.interrupted();
+		}
+	}
+
+}